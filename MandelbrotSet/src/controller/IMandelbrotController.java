@@ -9,4 +9,5 @@ public interface IMandelbrotController {
     void controlRedo();
     void changeColourMapping();
     void controlGenerate(int minRealPixel, int maxRealPixel, int minImaginaryPixel, int maxImaginaryPixel, int maxIterations, boolean changedScale, double sentRatio);
+    void controlPan(int deltaXPixels, int deltaYPixels);
 }
@@ -0,0 +1,206 @@
+package controller;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import model.IterationBuffer;
+
+/**
+ * The IterationFieldFile class stores the iteration values of a frame next to its PNG, so that a loaded image can be
+ * recoloured without calculating the set again.
+ *
+ * The file starts with a header holding the size of the frame and the parameters it was calculated with, so a field
+ * that no longer belongs to its image is recognised. The bounds are stored as decimal strings with all their digits, like
+ * in the meta-data of the PNG, so fields of deep zooms are told apart too. The values follow in row-major order, each one encoded as the
+ * difference to its predictor: the pixel to the left, or the pixel above for the first pixel of a row. Differences
+ * are zigzag and varint encoded, so the small steps between neighbouring pixels take one byte, and runs of equal
+ * differences of zero, which make up the interior and the wide outer bands, are stored as a 0 followed by the run
+ * length. The file is read through a memory mapping and decoded straight from it.
+ */
+public class IterationFieldFile {
+
+    public static final String EXTENSION = ".iter";
+
+    private static final int MAGIC = 0x4D495446;    // "MITF"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final IterationBuffer iterations;
+    private final int maxIterations;
+    private final BigDecimal minReal;
+    private final BigDecimal maxReal;
+    private final BigDecimal minImaginary;
+    private final BigDecimal maxImaginary;
+
+    public IterationFieldFile(IterationBuffer iterations, int maxIterations, BigDecimal minReal, BigDecimal maxReal,
+            BigDecimal minImaginary, BigDecimal maxImaginary) {
+        this.iterations = iterations;
+        this.maxIterations = maxIterations;
+        this.minReal = minReal;
+        this.maxReal = maxReal;
+        this.minImaginary = minImaginary;
+        this.maxImaginary = maxImaginary;
+    }
+
+    /**
+     * @param pngFile
+     * @return the sidecar file belonging to a PNG file: frame.png -> frame.iter
+     */
+    public static Path sidecarOf(Path pngFile) {
+        String name = pngFile.getFileName().toString();
+        if (name.toLowerCase().endsWith(".png"))
+            name = name.substring(0, name.length() - 4);
+        return pngFile.resolveSibling(name + EXTENSION);
+    }
+
+    public IterationBuffer getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return true if the field was calculated for exactly these parameters and this image size
+     */
+    public boolean matches(int width, int height, int maxIterations, BigDecimal minReal, BigDecimal maxReal,
+            BigDecimal minImaginary, BigDecimal maxImaginary) {
+        return iterations.hasSize(width, height) && this.maxIterations == maxIterations
+                && this.minReal.compareTo(minReal) == 0 && this.maxReal.compareTo(maxReal) == 0
+                && this.minImaginary.compareTo(minImaginary) == 0 && this.maxImaginary.compareTo(maxImaginary) == 0;
+    }
+
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Channels.newOutputStream(channel), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(iterations.getWidth());
+            out.writeInt(iterations.getHeight());
+            out.writeInt(maxIterations);
+            writeDecimal(out, minReal);
+            writeDecimal(out, maxReal);
+            writeDecimal(out, minImaginary);
+            writeDecimal(out, maxImaginary);
+            writeValues(out);
+        }
+    }
+
+    private void writeValues(OutputStream out) throws IOException {
+        int[] data = iterations.getData();
+        int width = iterations.getWidth();
+        int zeroRun = 0;
+        for (int i = 0; i < data.length; i++) {
+            int delta = data[i] - predictor(data, i, width);
+            if (delta == 0) {
+                zeroRun++;
+                continue;
+            }
+            if (zeroRun > 0) {
+                out.write(0);
+                writeVarint(out, zeroRun);
+                zeroRun = 0;
+            }
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+        }
+        if (zeroRun > 0) {
+            out.write(0);
+            writeVarint(out, zeroRun);
+        }
+    }
+
+    /**
+     * @throws IOException if the file is not an iteration field file or is corrupt
+     */
+    public static IterationFieldFile read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                    throw new IOException(file + " is not an iteration field file");
+                int width = in.getInt();
+                int height = in.getInt();
+                int maxIterations = in.getInt();
+                if (width < 0 || height < 0 || maxIterations < 0 || (long) width * height > Integer.MAX_VALUE)
+                    throw new IOException("Corrupt header in " + file);
+                IterationFieldFile field = new IterationFieldFile(new IterationBuffer(width, height), maxIterations,
+                        readDecimal(in), readDecimal(in), readDecimal(in), readDecimal(in));
+                field.readValues(in);
+                return field;
+            } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                throw new IOException("Corrupt iteration field in " + file, ex);
+            }
+        }
+    }
+
+    private void readValues(ByteBuffer in) throws IOException {
+        int[] data = iterations.getData();
+        int width = iterations.getWidth();
+        int i = 0;
+        while (i < data.length) {
+            int token = readVarint(in);
+            if (token == 0) {
+                int run = readVarint(in);
+                if (run <= 0 || run > data.length - i)
+                    throw new IOException("Corrupt run length");
+                for (int end = i + run; i < end; i++)
+                    data[i] = predictor(data, i, width);
+            }
+            else {
+                int value = predictor(data, i, width) + ((token >>> 1) ^ -(token & 1));
+                if (value < 0 || value > maxIterations)
+                    throw new IOException("Iteration value out of range");
+                data[i++] = value;
+            }
+        }
+    }
+
+    private static int predictor(int[] data, int i, int width) {
+        if (i == 0)
+            return 0;
+        return i % width == 0 ? data[i - width] : data[i - 1];
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+        byte[] digits = value.toString().getBytes(StandardCharsets.US_ASCII);
+        out.writeShort(digits.length);
+        out.write(digits);
+    }
+
+    /**
+     * @throws NumberFormatException if the bytes are not a decimal number
+     */
+    private static BigDecimal readDecimal(ByteBuffer in) {
+        byte[] digits = new byte[in.getShort() & 0xFFFF];
+        in.get(digits);
+        return new BigDecimal(new String(digits, StandardCharsets.US_ASCII));
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt varint");
+    }
+}
@@ -1,34 +1,57 @@
 package controller;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.IIOImage;
+import java.util.zip.Deflater;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
-import javax.imageio.ImageTypeSpecifier;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataFormatImpl;
 import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageOutputStream;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import model.IMandelbrotModel;
+import model.IterationBuffer;
+import model.RenderHistory;
 import org.w3c.dom.NodeList;
 
 public class MandelbrotController implements IMandelbrotController {
     
+    protected static final int FAST_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    protected static final int SAVE_BAND_HEIGHT = 64;
+    protected static final int SAVE_BUFFER_SIZE = 1 << 16;
+    protected static final List<String> CUSTOM_DATA_KEYS = Arrays.asList("MaxIterations",
+            "Ratio", "MinReal", "MaxReal", "MinImaginary", "MaxImaginary");
+    
     private IMandelbrotModel model;
+    private volatile int compressionLevel = StreamingPngWriter.DEFAULT_COMPRESSION_LEVEL;
+    private ExecutorService saveExecutor;
 
     public MandelbrotController(IMandelbrotModel model) {
             this.model = model;
@@ -36,7 +59,7 @@ public class MandelbrotController implements IMandelbrotController {
     
     /**
      * In this method the controller handles how the user chooses image file 
-     *  and utilises the readCustomData() method for retrieving vital
+     *  and utilises the loadFromFile() method for retrieving vital
      * information from the same image file. If the specific meta-data 
      * do not exist the method ends.
      * 
@@ -60,12 +83,7 @@ public class MandelbrotController implements IMandelbrotController {
         if (chooser.getSelectedFile() != null) {
             String path=chooser.getSelectedFile().getAbsolutePath();
             try {
-                /* Code for opening file as bufferedimage from https://docs.
-                oracle.com/javase/tutorial/2d/images/loadimage.html */
-                
-                if (readCustomData(Files.readAllBytes(Paths.get(path))))
-                    model.setCurrentImage(ImageIO.read(new File(path)));
-                else
+                if (!loadFromFile(Paths.get(path)))
                     JOptionPane.showMessageDialog(null, "The file cannot be "
                             + "opened because it does not comply to metadata"
                             + " format of the application", "File not compliant",
@@ -77,6 +95,54 @@ public class MandelbrotController implements IMandelbrotController {
         }
     }
     
+    /**
+     * Loads an image saved by this application. Only the tEXt chunks are read
+     * to check the meta-data, the pixels are decoded once, and the model shows
+     * the decoded image without calculating the set again.
+     * @param file
+     * @return false if the file does not carry the meta-data of the application
+     * @throws IOException 
+     */
+    public boolean loadFromFile(Path file) throws IOException {
+        Map<String, String> customData = PngChunkScanner.readTextChunks(file);
+        if (!customData.keySet().containsAll(CUSTOM_DATA_KEYS))
+            return false;
+        /* Code for opening file as bufferedimage from https://docs.
+        oracle.com/javase/tutorial/2d/images/loadimage.html */
+        BufferedImage image = ImageIO.read(file.toFile());
+        if (image == null)
+            throw new IOException("The image in " + file + " cannot be decoded");
+        model.loadImage(image, readIterations(file, image, customData), customData.get("MaxIterations"), customData.get("Ratio"),
+                customData.get("MinReal"), customData.get("MaxReal"),
+                customData.get("MinImaginary"), customData.get("MaxImaginary"));
+        return true;
+    }
+    
+    /**
+     * Reads the iteration values saved next to an image, if there are any and
+     * they were calculated for the parameters stored in the image.
+     * @return the iteration values, or null if they have to be recalculated
+     */
+    private IterationBuffer readIterations(Path file, BufferedImage image, Map<String, String> customData) {
+        Path sidecar = IterationFieldFile.sidecarOf(file);
+        if (!Files.isRegularFile(sidecar))
+            return null;
+        try {
+            IterationFieldFile field = IterationFieldFile.read(sidecar);
+            if (field.matches(image.getWidth(), image.getHeight(),
+                    Integer.parseInt(customData.get("MaxIterations")),
+                    new BigDecimal(customData.get("MinReal")),
+                    new BigDecimal(customData.get("MaxReal")),
+                    new BigDecimal(customData.get("MinImaginary")),
+                    new BigDecimal(customData.get("MaxImaginary"))))
+                return field.getIterations();
+        } catch (IOException | NumberFormatException ex) {
+            Logger.getLogger(MandelbrotController.class.getName()).log(Level.WARNING,
+                    "Ignoring the iteration values in " + sidecar, ex);
+        }
+        return null;
+    }
+    
     /**
      * In this method the controller handles how the user chooses fileName and
      * path and utilises the writeCustomData() method for incorporating vital
@@ -102,18 +168,95 @@ public class MandelbrotController implements IMandelbrotController {
         
         if (chooser.getSelectedFile() != null) {
             String path=chooser.getSelectedFile().getAbsolutePath();
-            /* Code for saving file from https://stackoverflow.com/questions/126
-            74064/how-to-save-a-bufferedimage-as-a-file*/
-            try {
-                FileOutputStream fos = new FileOutputStream(path + ".png");
-                fos.write(writeCustomData());
-                fos.close();
-            } catch (Exception ex) {
+            saveToFile(Paths.get(path + ".png"));
+        }
+    }
+    
+    /**
+     * Saves the current image with its meta-data on a background thread, so
+     * the GUI stays responsive while large images are encoded. The snapshot
+     * the file is written from is requested before this method returns, and
+     * the image, iteration values and meta-data all come from it, so later
+     * changes to the model do not affect the file.
+     * 
+     * The encoder output goes straight to a FileChannel. Apart from the image
+     * itself only one row and one IDAT chunk are held in memory.
+     * 
+     * The iteration values of the frame are written next to the image (see
+     * IterationFieldFile), so loading it again does not need to recalculate
+     * the set. A frame whose values are not available gets no such file.
+     * @param file the file to write, replaced if it exists
+     * @return a Future completing when the file is written. Failures are
+     * logged and also reported through the Future.
+     */
+    public Future<?> saveToFile(Path file) {
+        Future<RenderHistory.Snapshot> snapshot = model.snapshotCurrentFrame();
+        int level = compressionLevel;
+        return getSaveExecutor().submit(() -> {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                RenderHistory.Snapshot frame = getFrame(snapshot);
+                writeCustomData(frame.getImage(), getCustomData(frame), Channels.newOutputStream(channel), level);
+                Path sidecar = IterationFieldFile.sidecarOf(file);
+                if (frame.getIterations() != null)
+                    new IterationFieldFile(frame.getIterations(), frame.getMaxIterations(),
+                            frame.getMinReal(), frame.getMaxReal(),
+                            frame.getMinImaginary(), frame.getMaxImaginary()).write(sidecar);
+                else
+                    Files.deleteIfExists(sidecar);
+            } catch (IOException | RuntimeException ex) {
                 Logger.getLogger(MandelbrotController.class.getName()).log(Level.SEVERE, null, ex);
+                throw ex;
             }
+            return null;
+        });
+    }
+    
+    /**
+     * Waits for a snapshot requested from the model.
+     */
+    private static RenderHistory.Snapshot getFrame(Future<RenderHistory.Snapshot> snapshot) throws IOException {
+        try {
+            return snapshot.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the current frame");
+        } catch (ExecutionException ex) {
+            throw new IOException("The current frame is not available", ex.getCause());
         }
     }
     
+    /**
+     * The executor is created on the first save, so a controller that never
+     * saves never starts a thread.
+     */
+    private synchronized ExecutorService getSaveExecutor() {
+        if (saveExecutor == null) {
+            saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Mandelbrot save");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return saveExecutor;
+    }
+    
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+    
+    /**
+     * @param compressionLevel a deflate level from 0 (no compression, fastest)
+     * to 9 (smallest file), or -1 for the default trade-off.
+     * FAST_COMPRESSION_LEVEL saves large images several times faster than the
+     * default for somewhat larger files.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+        this.compressionLevel = compressionLevel;
+    }
+    
     public void controlReset() {
         model.reset();
     }
@@ -137,72 +280,88 @@ public class MandelbrotController implements IMandelbrotController {
                 maxImaginaryPixel, maxIterations, changedScale, sentRatio);
     }
     
+    /**
+     * Moves the view while the user drags it. The model coalesces the pans
+     * of a fast drag, so this can be called for every mouse event.
+     */
+    public void controlPan(int deltaXPixels, int deltaYPixels) {
+        model.pan(deltaXPixels, deltaYPixels);
+    }
+    
     /**
      * This method is necessary for saving meta-data within the image. 
      * Specifically, it saves the MaxIterations, the Ratio, the 
      * MinReal, the MaxReal, the MinImaginary, and the MaxImaginary.
      * so we can re-load the image later and retrieve necessary data
      * for further editing.
+     * 
+     * The whole PNG is built in memory, so saveToFile should be preferred
+     * for writing files.
      * @return
      * @throws Exception 
      */
-    // https://stackoverflow.com/questions/6495518/writing-image-metadata-in-java-preferably-png
     public byte[] writeCustomData() throws Exception {
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
-
-        ImageWriteParam writeParam = writer.getDefaultWriteParam();
-        ImageTypeSpecifier typeSpecifier = ImageTypeSpecifier.
-                createFromBufferedImageType(BufferedImage.TYPE_INT_RGB);
-
-        //adding metadata
-        IIOMetadata metadata = writer.getDefaultImageMetadata(typeSpecifier, writeParam);
-        IIOMetadataNode text = new IIOMetadataNode("Text");
-        
-        IIOMetadataNode textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "MaxIterations");
-        textEntry.setAttribute("value", model.getCurrentMaxIterationsAsString());
-        text.appendChild(textEntry);
-        
-        textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "Ratio");
-        textEntry.setAttribute("value", model.getCurrentRatioAsString());
-        text.appendChild(textEntry);
-        
-        textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "MinReal");
-        textEntry.setAttribute("value", model.getCurrentMinRealAsString());
-        text.appendChild(textEntry);
-        
-        textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "MaxReal");
-        textEntry.setAttribute("value", model.getCurrentMaxRealAsString());
-        text.appendChild(textEntry);
-        
-        textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "MinImaginary");
-        textEntry.setAttribute("value", model.getCurrentMinImaginaryAsString());
-        text.appendChild(textEntry);
-        
-        textEntry = new IIOMetadataNode("TextEntry");
-        textEntry.setAttribute("keyword", "MaxImaginary");
-        textEntry.setAttribute("value", model.getCurrentMaxImaginaryAsString());
-        text.appendChild(textEntry);
-        
-        IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
-        root.appendChild(text);
-
-        metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, root);
-        
-        //writing the data
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageOutputStream stream = ImageIO.createImageOutputStream(baos);
-        writer.setOutput(stream);
-        writer.write(metadata, new IIOImage(model.getCurrentImage(), null, metadata), writeParam);
-        stream.close();
-
+        writeCustomData(baos);
         return baos.toByteArray();
     }
     
+    /**
+     * Streams the current image with its meta-data to out as a PNG, using the
+     * current compression level. The stream is closed afterwards.
+     * @param out
+     * @throws IOException 
+     */
+    public void writeCustomData(OutputStream out) throws IOException {
+        RenderHistory.Snapshot frame = getFrame(model.snapshotCurrentFrame());
+        writeCustomData(frame.getImage(), getCustomData(frame), out, compressionLevel);
+    }
+    
+    /**
+     * @return the meta-data entries of a frame in the order they are written
+     * to the file, formatted like the AsString getters of the model
+     */
+    private static Map<String, String> getCustomData(RenderHistory.Snapshot frame) {
+        Map<String, String> customData = new LinkedHashMap<String, String>();
+        customData.put("MaxIterations", Integer.toString(frame.getMaxIterations()));
+        customData.put("Ratio", String.valueOf(frame.getRatio()));
+        customData.put("MinReal", frame.getMinReal().toString());
+        customData.put("MaxReal", frame.getMaxReal().toString());
+        customData.put("MinImaginary", frame.getMinImaginary().toString());
+        customData.put("MaxImaginary", frame.getMaxImaginary().toString());
+        return customData;
+    }
+    
+    /**
+     * Encodes the image band by band. Images backed by an int array, such as
+     * the ones the model paints, are encoded straight from that array; others
+     * are copied one band of SAVE_BAND_HEIGHT rows at a time.
+     */
+    private static void writeCustomData(BufferedImage image, Map<String, String> customData,
+            OutputStream out, int compressionLevel) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        try (StreamingPngWriter writer = new StreamingPngWriter(new BufferedOutputStream(out, SAVE_BUFFER_SIZE),
+                width, height, customData, compressionLevel)) {
+            WritableRaster raster = image.getRaster();
+            if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+                    && raster.getParent() == null) {
+                int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                writer.writeRows(pixels, raster.getDataBuffer().getOffset(), scanlineStride, height);
+            }
+            else {
+                int bandHeight = Math.min(SAVE_BAND_HEIGHT, height);
+                int[] band = new int[width * bandHeight];
+                for (int y = 0; y < height; y += bandHeight) {
+                    int rows = Math.min(bandHeight, height - y);
+                    image.getRGB(0, y, width, rows, band, 0, width);
+                    writer.writeRows(band, 0, width, rows);
+                }
+            }
+        }
+    }
+    
     
     /**
      * 
@@ -0,0 +1,405 @@
+package controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import model.ColourPalette;
+import model.MandelbrotCalculator;
+
+/**
+ * The MandelbrotHttpServer class serves rendered frames over HTTP, so that tools without a display can fetch them.
+ * It is built on the JDK's com.sun.net.httpserver and answers two kinds of GET request with a PNG carrying the same
+ * meta-data as the images saved from the GUI:
+ * <ul>
+ * <li>/image?width=800&amp;height=600&amp;min-real=-2.1&amp;max-real=2.1&amp;min-imaginary=-2&amp;max-imaginary=2
+ *     &amp;iterations=50&amp;palette=default renders any viewport, every parameter being optional.</li>
+ * <li>/tile/{level}/{x}/{y}.png?iterations=50&amp;palette=default renders one TILE_SIZE x TILE_SIZE tile of a map
+ *     whose level 0 is the square TILE_ORIGIN .. TILE_ORIGIN + TILE_SPAN on both axes and whose every level halves
+ *     the tiles of the previous one.</li>
+ * </ul>
+ *
+ * A response depends on its parameters only, so its ETag is derived from them: a client sending it back in
+ * If-None-Match gets 304 Not Modified without any rendering. Requests are handled on a cached pool of daemon threads
+ * (Java 8 has no virtual threads), and identical requests arriving while the first one is still being rendered wait
+ * for that render instead of starting their own. At most maxConcurrentRenders frames are rendered at a time, all on
+ * the shared ForkJoinPool of the calculator.
+ */
+public class MandelbrotHttpServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    protected static final int TILE_SIZE = 256;
+    protected static final double TILE_ORIGIN = -2.0;
+    protected static final double TILE_SPAN = 4.0;
+    protected static final int MAX_TILE_LEVEL = 40;
+    protected static final int MAX_IMAGE_PIXELS = 4096 * 4096;
+    protected static final int MAX_ITERATIONS = 1000000;
+    protected static final int DEFAULT_MAX_CONCURRENT_RENDERS = Runtime.getRuntime().availableProcessors();
+    //Responses never change for the same parameters
+    protected static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    //Changes whenever a change to the renderer changes the images, so that cached ETags are not reused
+    protected static final String RENDERER_VERSION = "1";
+
+    private final MandelbrotCalculator calculator;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore renderPermits;
+    //Renders in progress by the parameters they were requested with
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder renders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+
+    /**
+     * Creates a server listening on the given port, 0 for any free port. It does not accept requests before start.
+     * @param maxConcurrentRenders the number of frames rendered at the same time, further requests wait
+     */
+    public MandelbrotHttpServer(MandelbrotCalculator calculator, int port, int maxConcurrentRenders)
+            throws IOException {
+        if (maxConcurrentRenders < 1)
+            throw new IllegalArgumentException("maxConcurrentRenders must be at least 1: " + maxConcurrentRenders);
+        this.calculator = calculator;
+        this.renderPermits = new Semaphore(maxConcurrentRenders);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/image", exchange -> handle(exchange, false));
+        server.createContext("/tile/", exchange -> handle(exchange, true));
+    }
+
+    public MandelbrotHttpServer(int port) throws IOException {
+        this(new MandelbrotCalculator(), port, DEFAULT_MAX_CONCURRENT_RENDERS);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, lets the ones being answered finish for up to delaySeconds and stops the threads.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the port the server listens on, useful when it was created with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, boolean tile) throws IOException {
+        requests.increment();
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendError(exchange, 405, "Only GET and HEAD are supported");
+                return;
+            }
+            FrameRequest request;
+            try {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                request = tile ? FrameRequest.forTile(exchange.getRequestURI().getPath(), query)
+                        : FrameRequest.forImage(query);
+            } catch (IllegalArgumentException ex) {
+                sendError(exchange, 400, ex.getMessage());
+                return;
+            }
+            String eTag = eTagOf(request.getKey());
+            exchange.getResponseHeaders().set("ETag", eTag);
+            exchange.getResponseHeaders().set("Cache-Control", CACHE_CONTROL);
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), eTag)) {
+                notModified.increment();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] png = getImage(request);
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, png.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(png);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(MandelbrotHttpServer.class.getName()).log(Level.WARNING,
+                    "Could not answer " + exchange.getRequestURI(), ex);
+            if (exchange.getResponseCode() == -1)
+                sendError(exchange, 500, "The image could not be rendered");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders the image of a request, or waits for the render of an identical request already in progress.
+     */
+    private byte[] getImage(FrameRequest request) throws IOException {
+        CompletableFuture<byte[]> image = new CompletableFuture<byte[]>();
+        CompletableFuture<byte[]> rendering = inFlight.putIfAbsent(request.getKey(), image);
+        if (rendering != null) {
+            coalesced.increment();
+            image = rendering;
+        }
+        else {
+            try {
+                image.complete(render(request));
+            } catch (IOException | RuntimeException ex) {
+                image.completeExceptionally(ex);
+            } finally {
+                inFlight.remove(request.getKey(), image);
+            }
+        }
+        try {
+            return image.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the image", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("The image could not be rendered", ex.getCause());
+        }
+    }
+
+    private byte[] render(FrameRequest request) throws IOException {
+        renderPermits.acquireUninterruptibly();
+        try {
+            renders.increment();
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            // as BigDecimal, viewports too narrow for double arithmetic are rendered in higher precision
+            new PngFrameRenderer(calculator).render(png, request.width, request.height,
+                    BigDecimal.valueOf(request.minReal), BigDecimal.valueOf(request.maxReal),
+                    BigDecimal.valueOf(request.minImaginary), BigDecimal.valueOf(request.maxImaginary),
+                    request.maxIterations, ZoomSequenceRenderer.INITIAL_REAL_WIDTH / (request.maxReal - request.minReal),
+                    ColourPalette.forName(request.palette, request.maxIterations));
+            return png.toByteArray();
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().remove("ETag");
+        exchange.getResponseHeaders().remove("Cache-Control");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<String, String>();
+        if (rawQuery == null || rawQuery.isEmpty())
+            return query;
+        try {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator < 0)
+                    throw new IllegalArgumentException("Parameter without a value: " + parameter);
+                query.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return query;
+    }
+
+    /**
+     * @return a strong ETag, the start of the SHA-256 of the request key and the renderer version
+     */
+    static String eTagOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    (RENDERER_VERSION + ' ' + key).getBytes(StandardCharsets.UTF_8));
+            StringBuilder eTag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++)
+                eTag.append(String.format("%02x", digest[i]));
+            return eTag.append('"').toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is required by the Java platform", ex);
+        }
+    }
+
+    /**
+     * @return true if the If-None-Match header lists the ETag or is *
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.startsWith("W/"))
+                trimmed = trimmed.substring(2);
+            if (trimmed.equals(eTag) || trimmed.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of requests received, including those answered with an error or 304
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of frames rendered
+     */
+    public long getRenderCount() {
+        return renders.sum();
+    }
+
+    /**
+     * @return the number of requests answered by the render of an identical request in progress
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of requests answered with 304 Not Modified
+     */
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    /**
+     * The validated parameters of one request. Two requests for the same image have the same key, whatever the
+     * order or spelling of their parameters.
+     */
+    static final class FrameRequest {
+
+        final int width;
+        final int height;
+        final double minReal;
+        final double maxReal;
+        final double minImaginary;
+        final double maxImaginary;
+        final int maxIterations;
+        final String palette;
+        private final String key;
+
+        FrameRequest(int width, int height, double minReal, double maxReal, double minImaginary,
+                double maxImaginary, int maxIterations, String palette) {
+            if (width < 1 || height < 1 || (long) width * height > MAX_IMAGE_PIXELS)
+                throw new IllegalArgumentException("The image must have 1 to " + MAX_IMAGE_PIXELS + " pixels");
+            if (!(maxReal > minReal) || !(maxImaginary > minImaginary) || Double.isInfinite(maxReal - minReal)
+                    || Double.isInfinite(maxImaginary - minImaginary))
+                throw new IllegalArgumentException("Invalid viewport " + minReal + ", " + maxReal + ", "
+                        + minImaginary + ", " + maxImaginary);
+            if (maxIterations < 1 || maxIterations > MAX_ITERATIONS)
+                throw new IllegalArgumentException("iterations must be between 1 and " + MAX_ITERATIONS);
+            ColourPalette.forName(palette, 1);
+            this.width = width;
+            this.height = height;
+            this.minReal = minReal;
+            this.maxReal = maxReal;
+            this.minImaginary = minImaginary;
+            this.maxImaginary = maxImaginary;
+            this.maxIterations = maxIterations;
+            this.palette = palette;
+            // Double.toString is exact, so equal viewports give equal keys
+            key = width + "x" + height + " " + minReal + " " + maxReal + " " + minImaginary + " " + maxImaginary
+                    + " " + maxIterations + " " + palette;
+        }
+
+        static FrameRequest forImage(Map<String, String> query) {
+            return new FrameRequest(intParameter(query, "width", 800), intParameter(query, "height", 600),
+                    doubleParameter(query, "min-real", -2.1), doubleParameter(query, "max-real", 2.1),
+                    doubleParameter(query, "min-imaginary", -2), doubleParameter(query, "max-imaginary", 2),
+                    intParameter(query, "iterations", 50), stringParameter(query, "palette", "default"));
+        }
+
+        /**
+         * @param path /tile/{level}/{x}/{y}.png
+         */
+        static FrameRequest forTile(String path, Map<String, String> query) {
+            String[] parts = path.split("/");
+            if (parts.length != 5 || !parts[4].endsWith(".png"))
+                throw new IllegalArgumentException("Tiles are requested as /tile/{level}/{x}/{y}.png");
+            int level;
+            long x;
+            long y;
+            try {
+                level = Integer.parseInt(parts[2]);
+                x = Long.parseLong(parts[3]);
+                y = Long.parseLong(parts[4].substring(0, parts[4].length() - ".png".length()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Tiles are requested as /tile/{level}/{x}/{y}.png");
+            }
+            long tiles = level >= 0 && level <= MAX_TILE_LEVEL ? 1L << level : 0;
+            if (x < 0 || x >= tiles || y < 0 || y >= tiles)
+                throw new IllegalArgumentException("No tile " + level + "/" + x + "/" + y);
+            double span = TILE_SPAN / tiles;
+            return new FrameRequest(TILE_SIZE, TILE_SIZE, TILE_ORIGIN + x * span, TILE_ORIGIN + (x + 1) * span,
+                    TILE_ORIGIN + y * span, TILE_ORIGIN + (y + 1) * span, intParameter(query, "iterations", 50),
+                    stringParameter(query, "palette", "default"));
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+            String value = query.get(name);
+            try {
+                return value == null ? defaultValue : Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(name + " expects an integer, not " + value);
+            }
+        }
+
+        private static double doubleParameter(Map<String, String> query, String name, double defaultValue) {
+            String value = query.get(name);
+            try {
+                return value == null ? defaultValue : Double.parseDouble(value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(name + " expects a number, not " + value);
+            }
+        }
+
+        private static String stringParameter(Map<String, String> query, String name, String defaultValue) {
+            String value = query.get(name);
+            return value == null ? defaultValue : value;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The PngChunkScanner class reads the tEXt entries of a PNG file without decoding the image. It walks the chunk list
+ * from header to header and only reads the data of tEXt chunks; the image data is skipped by moving the channel
+ * position, so the cost depends on the number of chunks rather than on the size of the image.
+ */
+public class PngChunkScanner {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int CRC_SIZE = 4;
+
+    private PngChunkScanner() {
+    }
+
+    /**
+     * @param file a PNG file
+     * @return keyword -> value for every tEXt chunk of the file, in file order. Chunks with a wrong CRC are ignored.
+     * @throws IOException if the file cannot be read or is not a PNG file
+     */
+    public static Map<String, String> readTextChunks(Path file) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            readFully(channel, header);
+            if (!Arrays.equals(header.array(), SIGNATURE))
+                throw new IOException(file + " is not a PNG file");
+            while (true) {
+                header.clear();
+                readFully(channel, header);
+                int length = header.getInt(0);
+                String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+                if (length < 0)
+                    throw new IOException("Corrupt chunk length in " + file);
+                if (type.equals("IEND"))
+                    break;
+                if (type.equals("tEXt")) {
+                    ByteBuffer data = ByteBuffer.allocate(length + CRC_SIZE);
+                    readFully(channel, data);
+                    CRC32 crc = new CRC32();
+                    crc.update(header.array(), 4, 4);
+                    crc.update(data.array(), 0, length);
+                    if ((int) crc.getValue() == data.getInt(length))
+                        putTextEntry(entries, data.array(), length);
+                }
+                else
+                    channel.position(channel.position() + length + CRC_SIZE);
+            }
+        }
+        return entries;
+    }
+
+    private static void putTextEntry(Map<String, String> entries, byte[] data, int length) {
+        int separator = 0;
+        while (separator < length && data[separator] != 0)
+            separator++;
+        if (separator == length)
+            return;
+        entries.put(new String(data, 0, separator, StandardCharsets.ISO_8859_1),
+                new String(data, separator + 1, length - separator - 1, StandardCharsets.ISO_8859_1));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Unexpected end of PNG file");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import model.ColourPalette;
+import model.IterationBuffer;
+import model.MandelbrotCalculator;
+import model.PerturbationCalculator;
+
+/**
+ * The PngFrameRenderer class renders one frame straight into a PNG stream, band by band: each band of rows is
+ * calculated, coloured and handed to a StreamingPngWriter before the next one is calculated. Only one band is held in
+ * memory, so the size of a frame is not limited by the heap. The file carries the same meta-data as the images saved
+ * from the GUI.
+ *
+ * The bands are calculated by a BandCalculator, normally a MandelbrotCalculator of this JVM, or a RenderCoordinator
+ * handing them to worker JVMs. A renderer is not thread-safe; concurrent renders need one renderer each.
+ *
+ * Frames given by BigDecimal bounds that double arithmetic cannot resolve are always calculated in this JVM, and as a
+ * whole, since the double-double and perturbation calculations take the exact bounds of the frame: by the
+ * MandelbrotCalculator in double-double precision, or by a PerturbationCalculator when that runs out of digits too. Only
+ * their colouring and encoding then goes band by band.
+ */
+public class PngFrameRenderer {
+
+    /**
+     * Calculates the rows [frameY, frameY + band height) of a width x height frame into band.
+     */
+    public interface BandCalculator {
+        void calcBand(IterationBuffer band, int frameY, int width, int height, double minReal, double maxReal,
+                double minImaginary, double maxImaginary, int maxIterations, double radiusSquared) throws IOException;
+    }
+
+    protected static final int DEFAULT_BAND_HEIGHT = 64;
+    protected static final double RADIUS_SQUARED = 4.0;
+    //Deflater window and hash tables, both directions of the IDAT chunk buffer and the scanline, roughly
+    private static final long ENCODER_BYTES = 4L << 16;
+
+    /**
+     * Fills band with the rows [frameY, frameY + band height) of the frame being rendered.
+     */
+    private interface BandSource {
+        void fill(IterationBuffer band, int frameY) throws IOException;
+    }
+
+    private final BandCalculator bandCalculator;
+    private final MandelbrotCalculator calculator;
+    private PerturbationCalculator perturbationCalculator;
+    private int bandHeight = DEFAULT_BAND_HEIGHT;
+    private int compressionLevel = StreamingPngWriter.DEFAULT_COMPRESSION_LEVEL;
+
+    public PngFrameRenderer(MandelbrotCalculator calculator) {
+        this((band, frameY, width, height, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared)
+                -> calculator.calcMandelbrotRegion(band, 0, frameY, width, height, minReal, maxReal, minImaginary,
+                        maxImaginary, maxIterations, radiusSquared, () -> false), calculator);
+    }
+
+    /**
+     * @param bandCalculator calculates the bands of the frames that double arithmetic resolves, the deeper ones are
+     * calculated by a MandelbrotCalculator of this JVM
+     */
+    public PngFrameRenderer(BandCalculator bandCalculator) {
+        this(bandCalculator, new MandelbrotCalculator());
+    }
+
+    private PngFrameRenderer(BandCalculator bandCalculator, MandelbrotCalculator calculator) {
+        this.bandCalculator = bandCalculator;
+        this.calculator = calculator;
+    }
+
+    /**
+     * Renders the frame and writes it to out, which is closed afterwards.
+     * @param ratio the magnification stored in the meta-data
+     * @throws IOException
+     */
+    public void render(OutputStream out, int width, int height, double minReal, double maxReal, double minImaginary,
+            double maxImaginary, int maxIterations, double ratio, ColourPalette palette) throws IOException {
+        write(out, width, height, customData(maxIterations, ratio, minReal, maxReal, minImaginary, maxImaginary),
+                palette, (band, frameY) -> bandCalculator.calcBand(band, frameY, width, height, minReal, maxReal,
+                        minImaginary, maxImaginary, maxIterations, RADIUS_SQUARED));
+    }
+
+    /**
+     * Renders the frame given at full precision and writes it to out, which is closed afterwards. A frame that double
+     * arithmetic resolves is rendered band by band like its bounds rounded to double; a deeper one is calculated as a
+     * whole first, see the class description.
+     * @param ratio the magnification stored in the meta-data
+     * @throws IOException
+     */
+    public void render(OutputStream out, int width, int height, BigDecimal minReal, BigDecimal maxReal,
+            BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double ratio, ColourPalette palette)
+            throws IOException {
+        Map<String, String> customData = customData(maxIterations, ratio, minReal, maxReal, minImaginary,
+                maxImaginary);
+        if (!MandelbrotCalculator.isDoubleDoubleNeeded(minReal, maxReal, minImaginary, maxImaginary, width, height)) {
+            double[] bounds = {minReal.doubleValue(), maxReal.doubleValue(), minImaginary.doubleValue(),
+                maxImaginary.doubleValue()};
+            write(out, width, height, customData, palette, (band, frameY) -> bandCalculator.calcBand(band, frameY,
+                    width, height, bounds[0], bounds[1], bounds[2], bounds[3], maxIterations, RADIUS_SQUARED));
+            return;
+        }
+        IterationBuffer frame = new IterationBuffer(width, height);
+        if (PerturbationCalculator.isNeeded(minReal, maxReal, minImaginary, maxImaginary, width, height)) {
+            if (perturbationCalculator == null)
+                perturbationCalculator = new PerturbationCalculator();
+            // runs like the calculator, which ZoomSequenceRenderer keeps serial while it renders frames in parallel
+            perturbationCalculator.setParallelRendering(calculator.isParallelRendering());
+            perturbationCalculator.setParallelism(calculator.getParallelism());
+            perturbationCalculator.calcMandelbrotSet(frame, minReal, maxReal, minImaginary, maxImaginary,
+                    maxIterations, RADIUS_SQUARED, () -> false);
+        } else
+            calculator.calcMandelbrotSet(frame, minReal, maxReal, minImaginary, maxImaginary, maxIterations,
+                    RADIUS_SQUARED, () -> false);
+        write(out, width, height, customData, palette, (band, frameY) -> System.arraycopy(frame.getData(),
+                frameY * width, band.getData(), 0, width * band.getHeight()));
+    }
+
+    /**
+     * Colours the bands of the frame as source fills them and streams them to out, which is closed afterwards.
+     */
+    private void write(OutputStream out, int width, int height, Map<String, String> customData,
+            ColourPalette palette, BandSource source) throws IOException {
+        IterationBuffer band = new IterationBuffer(width, Math.min(bandHeight, height));
+        int[] pixels = new int[width * band.getHeight()];
+        try (StreamingPngWriter writer = new StreamingPngWriter(out, width, height, customData, compressionLevel)) {
+            for (int frameY = 0; frameY < height; frameY += band.getHeight()) {
+                if (height - frameY < band.getHeight())
+                    band = new IterationBuffer(width, height - frameY);
+                source.fill(band, frameY);
+                int[] iterations = band.getData();
+                int count = width * band.getHeight();
+                for (int i = 0; i < count; i++)
+                    pixels[i] = palette.getColour(iterations[i]);
+                writer.writeRows(pixels, 0, width, band.getHeight());
+            }
+        }
+    }
+
+    /**
+     * @return the meta-data entries, in the same order as MandelbrotController.writeCustomData writes them
+     */
+    public static Map<String, String> customData(int maxIterations, double ratio, double minReal, double maxReal,
+            double minImaginary, double maxImaginary) {
+        Map<String, String> customData = new LinkedHashMap<String, String>();
+        customData.put("MaxIterations", String.valueOf(maxIterations));
+        customData.put("Ratio", String.valueOf(ratio));
+        customData.put("MinReal", String.valueOf(minReal));
+        customData.put("MaxReal", String.valueOf(maxReal));
+        customData.put("MinImaginary", String.valueOf(minImaginary));
+        customData.put("MaxImaginary", String.valueOf(maxImaginary));
+        return customData;
+    }
+
+    /**
+     * @return the meta-data entries with the bounds at full precision, as the GUI saves them
+     */
+    public static Map<String, String> customData(int maxIterations, double ratio, BigDecimal minReal,
+            BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary) {
+        Map<String, String> customData = new LinkedHashMap<String, String>();
+        customData.put("MaxIterations", String.valueOf(maxIterations));
+        customData.put("Ratio", String.valueOf(ratio));
+        customData.put("MinReal", minReal.toString());
+        customData.put("MaxReal", maxReal.toString());
+        customData.put("MinImaginary", minImaginary.toString());
+        customData.put("MaxImaginary", maxImaginary.toString());
+        return customData;
+    }
+
+    /**
+     * @return an estimate of the memory one render takes, excluding the palette: the iteration values and colours
+     * of one band and the encoder. Frames calculated as a whole hold the iteration values of all their rows, so pass
+     * the frame height as bandHeight for those.
+     */
+    public static long getBytesPerRender(int width, int bandHeight) {
+        return 2L * 4 * width * bandHeight + ENCODER_BYTES;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight < 1)
+            throw new IllegalArgumentException("The band height must be positive: " + bandHeight);
+        this.bandHeight = bandHeight;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+}
@@ -0,0 +1,361 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import model.IterationBuffer;
+
+/**
+ * The RenderCoordinator class spreads the calculation of frames over worker JVMs, see RenderWorker, on this host or
+ * on others. Every region it is asked for is split into work units of unitHeight rows; a unit carries the parameters
+ * of MandelbrotCalculator.calcMandelbrotRegion, so a worker calculates exactly the values a local render would.
+ *
+ * Workers connect to the coordinator and pull units one at a time: a worker asks for a unit, calculates it, sends
+ * back its rows deflated and asks for the next one. The protocol runs over one socket per worker with
+ * DataInput/DataOutput encoding:
+ * <ul>
+ * <li>worker: MAGIC once after connecting</li>
+ * <li>worker: READY, coordinator: UNIT id frameX frameY width height xResolution yResolution minReal maxReal
+ *     minImaginary maxImaginary maxIterations radiusSquared</li>
+ * <li>worker: HEARTBEAT every HEARTBEAT_MILLIS while calculating</li>
+ * <li>worker: RESULT id length, followed by the deflated big-endian iteration values of the unit</li>
+ * </ul>
+ * A worker that closes its connection, sends anything unexpected or stays silent for WORKER_TIMEOUT_MILLIS is
+ * dropped and its unit goes back to the front of the queue for another worker. Calls wait as long as there are
+ * units left, so they also wait while no worker is connected.
+ */
+public class RenderCoordinator implements PngFrameRenderer.BandCalculator {
+
+    protected static final int DEFAULT_PORT = 9090;
+    protected static final int DEFAULT_UNIT_HEIGHT = 16;
+    protected static final int HEARTBEAT_MILLIS = 2000;
+    protected static final int WORKER_TIMEOUT_MILLIS = 15000;
+
+    static final int MAGIC = 0x4d424431;
+    static final byte READY = 1;
+    static final byte UNIT = 2;
+    static final byte RESULT = 3;
+    static final byte HEARTBEAT = 4;
+
+    private static final Logger LOGGER = Logger.getLogger(RenderCoordinator.class.getName());
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    //Units waiting for a worker; units of lost workers are put back at the front
+    private final LinkedBlockingDeque<WorkUnit> queue = new LinkedBlockingDeque<WorkUnit>();
+    private final Set<Socket> workers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextUnitId = new AtomicLong();
+    private final LongAdder unitsCompleted = new LongAdder();
+    private final LongAdder unitsReassigned = new LongAdder();
+    private final LongAdder workersLost = new LongAdder();
+    private volatile boolean stopped;
+    private int unitHeight = DEFAULT_UNIT_HEIGHT;
+
+    /**
+     * Creates a coordinator listening on the given port, 0 for any free port. It does not accept workers before
+     * start.
+     */
+    public RenderCoordinator(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        executor.execute(this::acceptWorkers);
+    }
+
+    /**
+     * Disconnects the workers. Calls waiting for units fail with an IOException.
+     */
+    public void stop() {
+        synchronized (queue) {
+            stopped = true;
+            List<WorkUnit> abandoned = new ArrayList<WorkUnit>();
+            queue.drainTo(abandoned);
+            for (WorkUnit unit : abandoned)
+                unit.remaining.countDown();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Could not close the server socket", ex);
+        }
+        for (Socket worker : workers)
+            close(worker);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the port the coordinator listens on, useful when it was created with port 0
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void calcBand(IterationBuffer band, int frameY, int width, int height, double minReal, double maxReal,
+            double minImaginary, double maxImaginary, int maxIterations, double radiusSquared) throws IOException {
+        calcRegion(band, 0, frameY, width, height, minReal, maxReal, minImaginary, maxImaginary, maxIterations,
+                radiusSquared);
+    }
+
+    /**
+     * Calculates part of a frame on the workers, like MandelbrotCalculator.calcMandelbrotRegion does locally, and
+     * waits until every row has arrived.
+     * @throws IOException if the coordinator is stopped before
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting. Units no worker has taken
+     * yet are withdrawn.
+     */
+    public void calcRegion(IterationBuffer region, int frameX, int frameY, int xResolution, int yResolution,
+            double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations,
+            double radiusSquared) throws IOException {
+        int height = region.getHeight();
+        CountDownLatch remaining = new CountDownLatch((height + unitHeight - 1) / unitHeight);
+        synchronized (queue) {
+            if (stopped)
+                throw new IOException("The coordinator is stopped");
+            for (int y = 0; y < height; y += unitHeight)
+                queue.add(new WorkUnit(nextUnitId.getAndIncrement(), region, y, Math.min(unitHeight, height - y),
+                        remaining, frameX, frameY + y, xResolution, yResolution, minReal, maxReal, minImaginary,
+                        maxImaginary, maxIterations, radiusSquared));
+        }
+        try {
+            remaining.await();
+        } catch (InterruptedException ex) {
+            queue.removeIf(unit -> unit.remaining == remaining);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the workers");
+        }
+        if (stopped)
+            throw new IOException("The coordinator was stopped before the region was complete");
+    }
+
+    private void acceptWorkers() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                workers.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException ex) {
+                if (!stopped)
+                    LOGGER.log(Level.WARNING, "Could not accept a worker", ex);
+            }
+        }
+    }
+
+    /**
+     * Hands units to one worker until it is lost or the coordinator stops.
+     */
+    private void serve(Socket socket) {
+        WorkUnit unit = null;
+        try {
+            socket.setSoTimeout(WORKER_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a Mandelbrot worker");
+            Inflater inflater = new Inflater();
+            try {
+                while (!stopped) {
+                    expect(in, READY);
+                    unit = queue.take();
+                    out.writeByte(UNIT);
+                    unit.write(out);
+                    out.flush();
+                    expect(in, RESULT);
+                    readResult(in, unit, inflater);
+                    unit.remaining.countDown();
+                    unitsCompleted.increment();
+                    unit = null;
+                }
+            } finally {
+                inflater.end();
+            }
+        } catch (IOException ex) {
+            if (!stopped) {
+                workersLost.increment();
+                LOGGER.log(Level.WARNING, "Lost the worker at " + socket.getRemoteSocketAddress()
+                        + (ex instanceof SocketTimeoutException ? ", it stopped responding" : ""), ex);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.remove(socket);
+            close(socket);
+            if (unit != null)
+                reassign(unit);
+        }
+    }
+
+    private void reassign(WorkUnit unit) {
+        synchronized (queue) {
+            if (stopped) {
+                unit.remaining.countDown();
+                return;
+            }
+            unitsReassigned.increment();
+            queue.addFirst(unit);
+        }
+    }
+
+    /**
+     * Reads the next message, skipping heartbeats, and checks its type.
+     */
+    private static void expect(DataInputStream in, byte type) throws IOException {
+        byte received;
+        do {
+            received = in.readByte();
+        } while (received == HEARTBEAT);
+        if (received != type)
+            throw new IOException("Expected message " + type + " but received " + received);
+    }
+
+    /**
+     * Inflates the rows of a unit straight into its region.
+     */
+    private static void readResult(DataInputStream in, WorkUnit unit, Inflater inflater) throws IOException {
+        long id = in.readLong();
+        if (id != unit.id)
+            throw new IOException("Received unit " + id + " instead of " + unit.id);
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        int count = unit.width * unit.height;
+        byte[] bytes = new byte[4 * count];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(bytes) != bytes.length || !inflater.finished())
+                throw new IOException("Unit " + id + " does not have " + count + " values");
+        } catch (DataFormatException ex) {
+            throw new IOException("Unit " + id + " is corrupt", ex);
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(unit.region.getData(), unit.regionY * unit.width, count);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Could not close " + socket, ex);
+        }
+    }
+
+    /**
+     * @return the number of workers connected
+     */
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    public long getUnitsCompleted() {
+        return unitsCompleted.sum();
+    }
+
+    /**
+     * @return the number of units handed to another worker after their worker was lost
+     */
+    public long getUnitsReassigned() {
+        return unitsReassigned.sum();
+    }
+
+    public long getWorkersLost() {
+        return workersLost.sum();
+    }
+
+    public int getUnitHeight() {
+        return unitHeight;
+    }
+
+    public void setUnitHeight(int unitHeight) {
+        if (unitHeight < 1)
+            throw new IllegalArgumentException("The unit height must be positive: " + unitHeight);
+        this.unitHeight = unitHeight;
+    }
+
+    /**
+     * The rows [regionY, regionY + height) of a region, which are the rows [frameY, frameY + height) of the frame.
+     */
+    private static final class WorkUnit {
+        final long id;
+        final IterationBuffer region;
+        final int regionY;
+        final int width;
+        final int height;
+        final CountDownLatch remaining;
+        final int frameX;
+        final int frameY;
+        final int xResolution;
+        final int yResolution;
+        final double minReal;
+        final double maxReal;
+        final double minImaginary;
+        final double maxImaginary;
+        final int maxIterations;
+        final double radiusSquared;
+
+        WorkUnit(long id, IterationBuffer region, int regionY, int height, CountDownLatch remaining, int frameX,
+                int frameY, int xResolution, int yResolution, double minReal, double maxReal, double minImaginary,
+                double maxImaginary, int maxIterations, double radiusSquared) {
+            this.id = id;
+            this.region = region;
+            this.regionY = regionY;
+            this.width = region.getWidth();
+            this.height = height;
+            this.remaining = remaining;
+            this.frameX = frameX;
+            this.frameY = frameY;
+            this.xResolution = xResolution;
+            this.yResolution = yResolution;
+            this.minReal = minReal;
+            this.maxReal = maxReal;
+            this.minImaginary = minImaginary;
+            this.maxImaginary = maxImaginary;
+            this.maxIterations = maxIterations;
+            this.radiusSquared = radiusSquared;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(id);
+            out.writeInt(frameX);
+            out.writeInt(frameY);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(xResolution);
+            out.writeInt(yResolution);
+            out.writeDouble(minReal);
+            out.writeDouble(maxReal);
+            out.writeDouble(minImaginary);
+            out.writeDouble(maxImaginary);
+            out.writeInt(maxIterations);
+            out.writeDouble(radiusSquared);
+        }
+    }
+}
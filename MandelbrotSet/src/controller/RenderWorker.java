@@ -0,0 +1,138 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import model.IterationBuffer;
+import model.MandelbrotCalculator;
+
+/**
+ * The RenderWorker class calculates work units for a RenderCoordinator, usually in a JVM of its own, see
+ * RenderCoordinator for the protocol. Each unit is calculated with MandelbrotCalculator.calcMandelbrotRegion on all
+ * the threads of the calculator, and its rows are sent back deflated at BEST_SPEED: iteration values are small and
+ * repeat a lot, so they shrink to a fraction of their four bytes each.
+ */
+public class RenderWorker {
+
+    private static final Logger LOGGER = Logger.getLogger(RenderWorker.class.getName());
+
+    private final MandelbrotCalculator calculator;
+    private final String host;
+    private final int port;
+    private final LongAdder unitsCalculated = new LongAdder();
+
+    public RenderWorker(MandelbrotCalculator calculator, String host, int port) {
+        this.calculator = calculator;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Connects to the coordinator and calculates units until it closes the connection.
+     * @throws IOException if the coordinator cannot be reached or the connection fails
+     */
+    public void run() throws IOException {
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot worker heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(RenderCoordinator.MAGIC);
+            IterationBuffer unit = null;
+            while (true) {
+                send(out, RenderCoordinator.READY);
+                int type = in.read();
+                if (type < 0)
+                    return;
+                if (type != RenderCoordinator.UNIT)
+                    throw new IOException("Expected a unit but received message " + type);
+                long id = in.readLong();
+                int frameX = in.readInt();
+                int frameY = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                int xResolution = in.readInt();
+                int yResolution = in.readInt();
+                double minReal = in.readDouble();
+                double maxReal = in.readDouble();
+                double minImaginary = in.readDouble();
+                double maxImaginary = in.readDouble();
+                int maxIterations = in.readInt();
+                double radiusSquared = in.readDouble();
+                if (unit == null || !unit.hasSize(width, height))
+                    unit = new IterationBuffer(width, height);
+
+                ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+                    try {
+                        send(out, RenderCoordinator.HEARTBEAT);
+                    } catch (IOException ex) {
+                        LOGGER.log(Level.FINE, "Could not send a heartbeat", ex);
+                    }
+                }, RenderCoordinator.HEARTBEAT_MILLIS, RenderCoordinator.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                try {
+                    calculator.calcMandelbrotRegion(unit, frameX, frameY, xResolution, yResolution, minReal, maxReal,
+                            minImaginary, maxImaginary, maxIterations, radiusSquared, () -> false);
+                } finally {
+                    heartbeat.cancel(false);
+                }
+                byte[] compressed = compress(unit.getData(), width * height, deflater);
+                synchronized (out) {
+                    out.writeByte(RenderCoordinator.RESULT);
+                    out.writeLong(id);
+                    out.writeInt(compressed.length);
+                    out.write(compressed);
+                }
+                unitsCalculated.increment();
+            }
+        } finally {
+            deflater.end();
+            heartbeats.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends a message without payload, flushing whatever was written before it. Heartbeats are sent from another
+     * thread, so every message is written while holding the lock of out.
+     */
+    private static void send(DataOutputStream out, byte type) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.flush();
+        }
+    }
+
+    private static byte[] compress(int[] values, int count, Deflater deflater) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * count);
+        bytes.asIntBuffer().put(values, 0, count);
+        deflater.reset();
+        deflater.setInput(bytes.array());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(count);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished())
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        return compressed.toByteArray();
+    }
+
+    public long getUnitsCalculated() {
+        return unitsCalculated.sum();
+    }
+}
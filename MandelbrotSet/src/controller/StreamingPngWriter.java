@@ -0,0 +1,204 @@
+package controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The StreamingPngWriter class encodes a truecolour PNG row by row, so an image never has to be held in memory as a
+ * whole. The caller hands over the rows from top to bottom, in bands of any height, and the compressed data is
+ * written to the output as IDAT chunks of at most IDAT_CHUNK_SIZE bytes while the rows arrive.
+ *
+ * The text entries are written as tEXt chunks ahead of the image data, which is where ImageIO puts the entries of
+ * writeCustomData, so readCustomData reads both kinds of file the same way.
+ */
+public class StreamingPngWriter implements AutoCloseable {
+
+    protected static final int IDAT_CHUNK_SIZE = 1 << 16;
+    protected static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final int FILTER_SUB = 1;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream imageData;
+    private final byte[] scanline;
+    private int rowsWritten;
+    private boolean closed;
+
+    /**
+     * Writes the signature, the header and the text entries.
+     * @param out the stream receiving the PNG. It is closed by close().
+     * @param width the width of the image in pixels
+     * @param height the height of the image in pixels
+     * @param textEntries keyword -> value pairs, written in iteration order. May be null.
+     * @param compressionLevel a Deflater level from 0 (store) to 9 (smallest), or -1 for the default
+     * @throws IOException
+     */
+    public StreamingPngWriter(OutputStream out, int width, int height, Map<String, String> textEntries, int compressionLevel) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.scanline = new byte[1 + width * BYTES_PER_PIXEL];
+        this.deflater = new Deflater(compressionLevel);
+        this.imageData = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_CHUNK_SIZE);
+
+        this.out.write(SIGNATURE);
+        DataChunk header = new DataChunk("IHDR");
+        header.writeInt(width);
+        header.writeInt(height);
+        header.write(8);        // bit depth
+        header.write(2);        // colour type: truecolour
+        header.write(0);        // compression method
+        header.write(0);        // filter method
+        header.write(0);        // no interlace
+        header.writeTo(this.out);
+        if (textEntries != null) {
+            for (Map.Entry<String, String> entry : textEntries.entrySet()) {
+                DataChunk text = new DataChunk("tEXt");
+                text.write(entry.getKey().getBytes(StandardCharsets.ISO_8859_1));
+                text.write(0);
+                text.write(entry.getValue().getBytes(StandardCharsets.ISO_8859_1));
+                text.writeTo(this.out);
+            }
+        }
+    }
+
+    public StreamingPngWriter(OutputStream out, int width, int height, Map<String, String> textEntries) throws IOException {
+        this(out, width, height, textEntries, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Appends rows to the image. Each row is filtered with the PNG Sub filter, which costs one subtraction per byte
+     * and compresses the smooth colour bands of the set much better than unfiltered rows.
+     * @param pixels packed RGB pixels; the alpha byte is ignored
+     * @param offset the index of the first pixel of the first row
+     * @param scanlineStride the distance between the first pixels of two consecutive rows
+     * @param rows the number of rows to append
+     * @throws IOException
+     */
+    public void writeRows(int[] pixels, int offset, int scanlineStride, int rows) throws IOException {
+        if (rowsWritten + rows > height)
+            throw new IllegalStateException("Writing " + rows + " rows after " + rowsWritten + " exceeds the height " + height);
+        for (int row = 0; row < rows; row++) {
+            int rowOffset = offset + row * scanlineStride;
+            scanline[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0, i = 1; x < width; x++, i += BYTES_PER_PIXEL) {
+                int rgb = pixels[rowOffset + x];
+                scanline[i] = (byte) ((rgb >> 16) - (previous >> 16));
+                scanline[i + 1] = (byte) ((rgb >> 8) - (previous >> 8));
+                scanline[i + 2] = (byte) (rgb - previous);
+                previous = rgb;
+            }
+            imageData.write(scanline);
+        }
+        rowsWritten += rows;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Flushes the remaining image data, writes the trailer and closes the output.
+     * @throws IOException
+     * @throws IllegalStateException if fewer rows than the height were written. The output is closed regardless.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (rowsWritten != height)
+                throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+            imageData.close();
+            new DataChunk("IEND").writeTo(out);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Collects the data of one chunk so that its length and CRC can be written in front of and behind it.
+     */
+    private static class DataChunk extends DataOutputStream {
+
+        private final String type;
+
+        DataChunk(String type) {
+            super(new ByteArrayOutputStream());
+            this.type = type;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            byte[] data = ((ByteArrayOutputStream) out).toByteArray();
+            writeChunk(target, type, data, data.length);
+        }
+    }
+
+    private static void writeChunk(DataOutputStream target, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        target.writeInt(length);
+        target.write(typeBytes);
+        target.write(data, 0, length);
+        target.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Receives the compressed image data and cuts it into IDAT chunks.
+     */
+    private class IdatOutputStream extends OutputStream {
+
+        private final byte[] buffer = new byte[IDAT_CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length)
+                    flushChunk();
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0)
+                writeChunk(out, "IDAT", buffer, count);
+            count = 0;
+        }
+    }
+}
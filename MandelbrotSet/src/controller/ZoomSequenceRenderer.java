@@ -0,0 +1,344 @@
+package controller;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import model.ColourPalette;
+import model.MandelbrotCalculator;
+import model.PerturbationCalculator;
+
+/**
+ * The ZoomSequenceRenderer class renders a smooth zoom through a list of keyframes as numbered PNG files, ready to
+ * be assembled into a video. Between two keyframes the width and height of the view change by the same factor from
+ * frame to frame, so the zoom speed looks constant, and the centre moves in proportion to the width, so the point
+ * zoomed into stays still on the screen. The maximum number of iterations is interpolated linearly.
+ *
+ * Keyframes and frames keep their bounds as BigDecimal, and the centre of a frame is interpolated as its offset to the
+ * centre of the next keyframe, so zooms can go as deep as the GUI: frames that double arithmetic cannot resolve are
+ * rendered in double-double precision or by perturbation, see PngFrameRenderer.
+ *
+ * Frames are rendered concurrently, each one band by band by its own PngFrameRenderer, with as many frames in flight
+ * as the memory budget allows. Each frame is written to a temporary file that is renamed when it is complete, so after
+ * a crash the next run skips the frames that exist and renders only the missing ones. With a RenderCoordinator set,
+ * the bands are calculated by its workers instead of this JVM; the threads then only colour and encode, and the frames
+ * in flight keep the workers busy. Frames too deep for double arithmetic are still calculated here.
+ */
+public class ZoomSequenceRenderer {
+
+    protected static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+    protected static final String TEMPORARY_SUFFIX = ".part";
+    //The real width of the initial view of the model, the magnification stored as Ratio is relative to it
+    protected static final double INITIAL_REAL_WIDTH = 4.2;
+    //The smallest span of a keyframe; the PerturbationCalculator needs the pixel spacing as a normal double
+    protected static final double MIN_SPAN = 1e-290;
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    /**
+     * Receives a call after every frame written.
+     */
+    public interface ProgressListener {
+        void frameWritten(int frame, int framesWritten, int framesToWrite, double framesPerMinute);
+    }
+
+    /**
+     * A viewport of the zoom together with the maximum number of iterations to use there.
+     */
+    public static final class Keyframe {
+
+        private final BigDecimal minReal;
+        private final BigDecimal maxReal;
+        private final BigDecimal minImaginary;
+        private final BigDecimal maxImaginary;
+        private final int maxIterations;
+
+        /**
+         * @throws IllegalArgumentException if a span is not positive or smaller than MIN_SPAN
+         */
+        public Keyframe(BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary,
+                int maxIterations) {
+            if (maxReal.compareTo(minReal) <= 0 || maxImaginary.compareTo(minImaginary) <= 0 || maxIterations < 1)
+                throw new IllegalArgumentException("Invalid keyframe " + minReal + ", " + maxReal + ", "
+                        + minImaginary + ", " + maxImaginary + ", " + maxIterations);
+            if (maxReal.subtract(minReal).doubleValue() < MIN_SPAN
+                    || maxImaginary.subtract(minImaginary).doubleValue() < MIN_SPAN)
+                throw new IllegalArgumentException("Keyframe " + minReal + ", " + maxReal + ", " + minImaginary + ", "
+                        + maxImaginary + " is too deep, the spans must be at least " + MIN_SPAN);
+            this.minReal = minReal;
+            this.maxReal = maxReal;
+            this.minImaginary = minImaginary;
+            this.maxImaginary = maxImaginary;
+            this.maxIterations = maxIterations;
+        }
+
+        public Keyframe(double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations) {
+            this(new BigDecimal(minReal), new BigDecimal(maxReal), new BigDecimal(minImaginary),
+                    new BigDecimal(maxImaginary), maxIterations);
+        }
+
+        public BigDecimal getMinReal() {
+            return minReal;
+        }
+
+        public BigDecimal getMaxReal() {
+            return maxReal;
+        }
+
+        public BigDecimal getMinImaginary() {
+            return minImaginary;
+        }
+
+        public BigDecimal getMaxImaginary() {
+            return maxImaginary;
+        }
+
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        private BigDecimal getWidth() {
+            return maxReal.subtract(minReal);
+        }
+
+        private BigDecimal getHeight() {
+            return maxImaginary.subtract(minImaginary);
+        }
+    }
+
+    private final List<Keyframe> keyframes;
+    private final int framesPerSegment;
+    private final int width;
+    private final int height;
+    private final Path directory;
+    private String filePrefix = "frame_";
+    private String paletteName = "default";
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int bandHeight = PngFrameRenderer.DEFAULT_BAND_HEIGHT;
+    private int compressionLevel = StreamingPngWriter.DEFAULT_COMPRESSION_LEVEL;
+    private RenderCoordinator coordinator;
+
+    /**
+     * @param keyframes at least two viewports, zoomed through in order
+     * @param framesPerSegment the number of frames from one keyframe to the next
+     * @param width the width of every frame in pixels
+     * @param height the height of every frame in pixels
+     * @param directory where the frames are written, created if necessary
+     */
+    public ZoomSequenceRenderer(List<Keyframe> keyframes, int framesPerSegment, int width, int height, Path directory) {
+        if (keyframes.size() < 2)
+            throw new IllegalArgumentException("A zoom needs at least two keyframes");
+        if (framesPerSegment < 1 || width < 1 || height < 1)
+            throw new IllegalArgumentException("Frame counts and sizes must be positive");
+        this.keyframes = new ArrayList<Keyframe>(keyframes);
+        this.framesPerSegment = framesPerSegment;
+        this.width = width;
+        this.height = height;
+        this.directory = directory;
+    }
+
+    public int getFrameCount() {
+        return framesPerSegment * (keyframes.size() - 1) + 1;
+    }
+
+    /**
+     * @param frame an index in [0, getFrameCount())
+     * @return the viewport of the frame
+     */
+    public Keyframe getFrame(int frame) {
+        int segment = Math.min(frame / framesPerSegment, keyframes.size() - 2);
+        double t = (double) (frame - segment * framesPerSegment) / framesPerSegment;
+        Keyframe from = keyframes.get(segment);
+        Keyframe to = keyframes.get(segment + 1);
+
+        BigDecimal fromWidth = from.getWidth();
+        BigDecimal fromHeight = from.getHeight();
+        BigDecimal toWidth = to.getWidth();
+        BigDecimal toHeight = to.getHeight();
+        MathContext mathContext = PerturbationCalculator.mathContextFor(
+                fromWidth.min(fromHeight).min(toWidth).min(toHeight), Math.max(width, height));
+        // the widths differ by a factor a double holds even where their digits do not
+        double widthRatio = toWidth.doubleValue() / fromWidth.doubleValue();
+        double heightRatio = toHeight.doubleValue() / fromHeight.doubleValue();
+        BigDecimal frameWidth = fromWidth.multiply(new BigDecimal(Math.pow(widthRatio, t)), mathContext);
+        BigDecimal frameHeight = fromHeight.multiply(new BigDecimal(Math.pow(heightRatio, t)), mathContext);
+        // share of the way from the centre of "from" to the centre of "to" that is still ahead, that is
+        // (frameWidth - toWidth) / (fromWidth - toWidth), with expm1 keeping it exact close to "to"
+        double remaining = fromWidth.compareTo(toWidth) == 0 ? 1 - t
+                : widthRatio * Math.expm1((t - 1) * Math.log(widthRatio)) / (1 - widthRatio);
+        BigDecimal toCentreReal = to.minReal.add(to.maxReal).multiply(HALF);
+        BigDecimal toCentreImaginary = to.minImaginary.add(to.maxImaginary).multiply(HALF);
+        BigDecimal centreReal = toCentreReal.add(from.minReal.add(from.maxReal).multiply(HALF)
+                .subtract(toCentreReal).multiply(new BigDecimal(remaining), mathContext), mathContext);
+        BigDecimal centreImaginary = toCentreImaginary.add(from.minImaginary.add(from.maxImaginary).multiply(HALF)
+                .subtract(toCentreImaginary).multiply(new BigDecimal(remaining), mathContext), mathContext);
+        BigDecimal halfWidth = frameWidth.multiply(HALF);
+        BigDecimal halfHeight = frameHeight.multiply(HALF);
+        int maxIterations = (int) Math.round(from.maxIterations + t * (to.maxIterations - from.maxIterations));
+        return new Keyframe(centreReal.subtract(halfWidth, mathContext), centreReal.add(halfWidth, mathContext),
+                centreImaginary.subtract(halfHeight, mathContext), centreImaginary.add(halfHeight, mathContext),
+                maxIterations);
+    }
+
+    public Path getFramePath(int frame) {
+        return directory.resolve(String.format("%s%05d.png", filePrefix, frame));
+    }
+
+    /**
+     * Renders every frame that does not exist yet.
+     * @param listener may be null
+     * @return the number of frames written by this call
+     * @throws IOException if a frame cannot be written. The frames being rendered at that moment are abandoned.
+     * @throws InterruptedException
+     */
+    public int render(ProgressListener listener) throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        deleteTemporaryFiles();
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int frame = 0; frame < getFrameCount(); frame++) {
+            if (!Files.exists(getFramePath(frame)))
+                missing.add(frame);
+        }
+        if (missing.isEmpty())
+            return 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(getConcurrency(), runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot sequence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadLocal<PngFrameRenderer> renderers = ThreadLocal.withInitial(() -> {
+            PngFrameRenderer renderer;
+            if (coordinator != null)
+                renderer = new PngFrameRenderer(coordinator);
+            else {
+                // the frames are rendered in parallel, so each frame is rendered on one thread
+                MandelbrotCalculator calculator = new MandelbrotCalculator();
+                calculator.setParallelRendering(false);
+                renderer = new PngFrameRenderer(calculator);
+            }
+            renderer.setBandHeight(bandHeight);
+            renderer.setCompressionLevel(compressionLevel);
+            return renderer;
+        });
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+        int written = 0;
+        long start = System.nanoTime();
+        try {
+            for (int frame : missing)
+                completion.submit(() -> {
+                    renderFrame(renderers.get(), frame);
+                    return frame;
+                });
+            while (written < missing.size()) {
+                int frame = completion.take().get();
+                written++;
+                if (listener != null)
+                    listener.frameWritten(frame, written, missing.size(),
+                            written * 6e10 / (System.nanoTime() - start));
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException("Rendering a frame failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return written;
+    }
+
+    /**
+     * Renders a frame into a temporary file and renames it, so a frame file only exists once it is complete.
+     */
+    private void renderFrame(PngFrameRenderer renderer, int frame) throws IOException {
+        Keyframe viewport = getFrame(frame);
+        Path file = getFramePath(frame);
+        Path temporary = file.resolveSibling(file.getFileName() + TEMPORARY_SUFFIX);
+        renderer.render(new BufferedOutputStream(Files.newOutputStream(temporary)), width, height,
+                viewport.minReal, viewport.maxReal, viewport.minImaginary, viewport.maxImaginary,
+                viewport.maxIterations, INITIAL_REAL_WIDTH / viewport.getWidth().doubleValue(),
+                ColourPalette.forName(paletteName, viewport.maxIterations));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Frames that were being written when a previous run stopped are rendered again.
+     */
+    private void deleteTemporaryFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, filePrefix + "*" + TEMPORARY_SUFFIX)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * @return the number of frames rendered at the same time: one per thread, as far as the memory budget allows
+     * for the band buffers and encoder of each frame and the palette of the deepest keyframe. If the deepest keyframe
+     * is too deep for double arithmetic, the whole frame is counted instead of a band, see PngFrameRenderer.
+     */
+    public int getConcurrency() {
+        int maxIterations = 0;
+        int bufferedRows = bandHeight;
+        for (Keyframe keyframe : keyframes) {
+            maxIterations = Math.max(maxIterations, keyframe.maxIterations);
+            if (MandelbrotCalculator.isDoubleDoubleNeeded(keyframe.minReal, keyframe.maxReal, keyframe.minImaginary,
+                    keyframe.maxImaginary, width, height))
+                bufferedRows = height;
+        }
+        long bytesPerFrame = PngFrameRenderer.getBytesPerRender(width, bufferedRows) + 4L * (maxIterations + 1);
+        return (int) Math.max(1, Math.min(threads, memoryBudget / bytesPerFrame));
+    }
+
+    public void setFilePrefix(String filePrefix) {
+        this.filePrefix = filePrefix;
+    }
+
+    /**
+     * @param paletteName see ColourPalette.forName
+     */
+    public void setPaletteName(String paletteName) {
+        ColourPalette.forName(paletteName, 1);
+        this.paletteName = paletteName;
+    }
+
+    /**
+     * @param memoryBudget the bytes the frames in flight may take together
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        this.threads = threads;
+    }
+
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight < 1)
+            throw new IllegalArgumentException("The band height must be positive: " + bandHeight);
+        this.bandHeight = bandHeight;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param coordinator calculates the bands on worker JVMs, null to calculate them here
+     */
+    public void setCoordinator(RenderCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+}
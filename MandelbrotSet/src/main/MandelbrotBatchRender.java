@@ -0,0 +1,102 @@
+package main;
+
+import controller.PngFrameRenderer;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import model.ColourPalette;
+import model.MandelbrotCalculator;
+
+/**
+ * Headless entry point rendering one frame straight to a PNG file, without creating any Swing component.
+ * The frame is computed and encoded band by band, so only one band of iteration values and colours is held in memory
+ * and frames far larger than the heap can be rendered. The file carries the same metadata as the files saved by the
+ * GUI, so it can be opened there for further exploring.
+ *
+ * Usage: java main.MandelbrotBatchRender --output=file.png [--width=800] [--height=600] [--min-real=-2.1]
+ *        [--max-real=2.1] [--min-imaginary=-2] [--max-imaginary=2] [--iterations=50] [--palette=default|bw|0-255]
+ *        [--ratio=1.0] [--band-height=64] [--compression=-1..9]
+ */
+public class MandelbrotBatchRender {
+
+    private static final int DEFAULT_BAND_HEIGHT = 64;
+
+    private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+    public static void main(String args[]) {
+        MandelbrotBatchRender render = new MandelbrotBatchRender();
+        try {
+            render.parseArguments(args);
+            render.run();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java main.MandelbrotBatchRender --output=file.png [--width=800] [--height=600]"
+                    + " [--min-real=-2.1] [--max-real=2.1] [--min-imaginary=-2] [--max-imaginary=2] [--iterations=50]"
+                    + " [--palette=default|bw|0-255] [--ratio=1.0] [--band-height=64] [--compression=-1..9]");
+            System.exit(2);
+        } catch (IOException ex) {
+            System.err.println("Could not write the image: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parseArguments(String args[]) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0)
+                throw new IllegalArgumentException("Unrecognised argument " + arg);
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (!options.containsKey("output"))
+            throw new IllegalArgumentException("No --output file given");
+    }
+
+    private void run() throws IOException {
+        String output = options.get("output");
+        int width = intOption("width", 800);
+        int height = intOption("height", 600);
+        double minReal = doubleOption("min-real", -2.1);
+        double maxReal = doubleOption("max-real", 2.1);
+        double minImaginary = doubleOption("min-imaginary", -2);
+        double maxImaginary = doubleOption("max-imaginary", 2);
+        int maxIterations = intOption("iterations", 50);
+        double ratio = doubleOption("ratio", 1.0);
+        int bandHeight = intOption("band-height", DEFAULT_BAND_HEIGHT);
+        int compressionLevel = intOption("compression", Deflater.DEFAULT_COMPRESSION);
+        if (width <= 0 || height <= 0 || maxIterations <= 0 || bandHeight <= 0)
+            throw new IllegalArgumentException("Sizes and iterations must be positive");
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("--compression expects a level from -1 to 9");
+        ColourPalette palette = ColourPalette.forName(options.containsKey("palette") ? options.get("palette") : "default", maxIterations);
+
+        PngFrameRenderer renderer = new PngFrameRenderer(new MandelbrotCalculator());
+        renderer.setBandHeight(bandHeight);
+        renderer.setCompressionLevel(compressionLevel);
+        long start = System.nanoTime();
+        renderer.render(new BufferedOutputStream(new FileOutputStream(output)), width, height, minReal, maxReal,
+                minImaginary, maxImaginary, maxIterations, ratio, palette);
+        System.out.println(String.format("Rendered %dx%d to %s in %.1f s", width, height, output,
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("--" + name + " expects an integer, not " + value);
+        }
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        String value = options.get(name);
+        try {
+            return value == null ? defaultValue : Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("--" + name + " expects a number, not " + value);
+        }
+    }
+}
@@ -2,17 +2,38 @@ package main;
 
 import controller.IMandelbrotController;
 import controller.MandelbrotController;
-import model.IMandelbrotModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import model.MandelbrotModel;
+import model.TileCache;
 import view.MandelbrotGuiView;
 
 
+/**
+ * Starts the GUI.
+ *
+ * Usage: java main.MandelbrotMain [--tile-cache[=memoryMB]] [--tile-spill=directory]
+ * --tile-cache serves frames from a TileCache, so returning to an area rendered before only calculates what is new,
+ * at the cost of resampling the frames to its grid. --tile-spill keeps the tiles evicted from memory on disk.
+ */
 public class MandelbrotMain {
     
+    private static final long DEFAULT_SPILL_BUDGET = 1L << 30;
+    
     public static void main(String args[]) {
         
         //create Model
-		IMandelbrotModel model = new MandelbrotModel();
+		MandelbrotModel model = new MandelbrotModel();
+		try {
+			TileCache tileCache = parseTileCache(args);
+			if (tileCache != null)
+				model.setTileCache(tileCache);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: java main.MandelbrotMain [--tile-cache[=memoryMB]] [--tile-spill=directory]");
+			System.exit(2);
+		}
 
 		// Create controller 
 		IMandelbrotController controller = new MandelbrotController(model);
@@ -21,4 +42,38 @@ public class MandelbrotMain {
 		new MandelbrotGuiView(model, controller);
     }
     
+    /**
+     * @return the tile cache the arguments ask for, or null without --tile-cache
+     */
+    private static TileCache parseTileCache(String args[]) {
+        TileCache tileCache = null;
+        String spillDirectory = null;
+        for (String arg : args) {
+            if (arg.equals("--tile-cache"))
+                tileCache = new TileCache();
+            else if (arg.startsWith("--tile-cache=")) {
+                try {
+                    tileCache = new TileCache(Long.parseLong(arg.substring("--tile-cache=".length())) << 20);
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("--tile-cache expects a size in MB, not " + arg);
+                }
+            }
+            else if (arg.startsWith("--tile-spill="))
+                spillDirectory = arg.substring("--tile-spill=".length());
+            else
+                throw new IllegalArgumentException("Unrecognised argument " + arg);
+        }
+        if (spillDirectory != null) {
+            if (tileCache == null)
+                throw new IllegalArgumentException("--tile-spill needs --tile-cache");
+            try {
+                tileCache.setSpillDirectory(Files.createDirectories(Paths.get(spillDirectory)),
+                        DEFAULT_SPILL_BUDGET);
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("Cannot use " + spillDirectory + " for tiles: " + ex);
+            }
+        }
+        return tileCache;
+    }
+    
 }
@@ -0,0 +1,42 @@
+package main;
+
+import controller.MandelbrotHttpServer;
+import java.io.IOException;
+import model.MandelbrotCalculator;
+
+/**
+ * Headless entry point serving rendered images and map tiles over HTTP, see MandelbrotHttpServer for the requests it
+ * answers. The server runs until the JVM is stopped.
+ *
+ * Usage: java main.MandelbrotRenderServer [--port=8080] [--max-renders=processors]
+ */
+public class MandelbrotRenderServer {
+
+    public static void main(String args[]) {
+        int port = MandelbrotHttpServer.DEFAULT_PORT;
+        int maxRenders = Runtime.getRuntime().availableProcessors();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--port="))
+                    port = Integer.parseInt(arg.substring("--port=".length()));
+                else if (arg.startsWith("--max-renders="))
+                    maxRenders = Integer.parseInt(arg.substring("--max-renders=".length()));
+                else
+                    throw new IllegalArgumentException("Unrecognised argument " + arg);
+            }
+            MandelbrotHttpServer server = new MandelbrotHttpServer(new MandelbrotCalculator(), port, maxRenders);
+            server.start();
+            System.out.println("Serving http://localhost:" + server.getPort() + "/image and /tile/{level}/{x}/{y}.png");
+            Thread.currentThread().join();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java main.MandelbrotRenderServer [--port=8080] [--max-renders=processors]");
+            System.exit(2);
+        } catch (IOException ex) {
+            System.err.println("Could not start the server: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package main;
+
+import controller.RenderWorker;
+import java.io.IOException;
+import java.net.ConnectException;
+import model.MandelbrotCalculator;
+
+/**
+ * Headless entry point calculating frames for a coordinator, e.g. MandelbrotSequenceRender --coordinator-port=9090.
+ * Any number of workers may run on one host or many. A worker waits for the coordinator to come up and exits once
+ * the coordinator closes the connection.
+ *
+ * Usage: java main.MandelbrotRenderWorker --coordinator=host:port [--threads=processors]
+ */
+public class MandelbrotRenderWorker {
+
+    private static final int CONNECT_ATTEMPTS = 60;
+    private static final long CONNECT_INTERVAL_MILLIS = 1000;
+
+    public static void main(String args[]) {
+        String coordinator = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--coordinator="))
+                    coordinator = arg.substring("--coordinator=".length());
+                else if (arg.startsWith("--threads="))
+                    threads = Integer.parseInt(arg.substring("--threads=".length()));
+                else
+                    throw new IllegalArgumentException("Unrecognised argument " + arg);
+            }
+            if (coordinator == null || coordinator.lastIndexOf(':') < 1)
+                throw new IllegalArgumentException("No --coordinator=host:port given");
+            String host = coordinator.substring(0, coordinator.lastIndexOf(':'));
+            int port = Integer.parseInt(coordinator.substring(coordinator.lastIndexOf(':') + 1));
+            MandelbrotCalculator calculator = new MandelbrotCalculator();
+            calculator.setParallelism(threads);
+            RenderWorker worker = new RenderWorker(calculator, host, port);
+            for (int attempt = 1;; attempt++) {
+                try {
+                    worker.run();
+                    break;
+                } catch (ConnectException ex) {
+                    if (attempt == CONNECT_ATTEMPTS)
+                        throw ex;
+                    Thread.sleep(CONNECT_INTERVAL_MILLIS);
+                }
+            }
+            System.out.println("Calculated " + worker.getUnitsCalculated() + " units");
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java main.MandelbrotRenderWorker --coordinator=host:port [--threads=processors]");
+            System.exit(2);
+        } catch (IOException ex) {
+            System.err.println("Lost the coordinator: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package main;
+
+import controller.RenderCoordinator;
+import controller.ZoomSequenceRenderer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headless entry point rendering a smooth zoom through keyframes as numbered PNG files, e.g. frame_00000.png.
+ * Running it again with the same arguments after a crash or an interruption renders only the missing frames.
+ * Progress and the throughput in frames per minute are printed after every frame.
+ * With --coordinator-port the frames are calculated by worker JVMs, see MandelbrotRenderWorker, connecting to that
+ * port; workers may join or leave at any time, and the units of a lost worker are calculated by another one.
+ *
+ * Usage: java main.MandelbrotSequenceRender --output=directory
+ *        --keyframes=minReal,maxReal,minImaginary,maxImaginary,iterations;... [--frames-per-segment=60]
+ *        [--width=800] [--height=600] [--palette=default|bw|0-255] [--threads=n] [--memory-mb=256]
+ *        [--band-height=64] [--compression=-1..9] [--prefix=frame_] [--coordinator-port=9090 [--unit-height=16]]
+ */
+public class MandelbrotSequenceRender {
+
+    private static final int DEFAULT_FRAMES_PER_SEGMENT = 60;
+
+    private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+    public static void main(String args[]) {
+        MandelbrotSequenceRender render = new MandelbrotSequenceRender();
+        try {
+            render.parseArguments(args);
+            render.run();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java main.MandelbrotSequenceRender --output=directory"
+                    + " --keyframes=minReal,maxReal,minImaginary,maxImaginary,iterations;..."
+                    + " [--frames-per-segment=60] [--width=800] [--height=600] [--palette=default|bw|0-255]"
+                    + " [--threads=n] [--memory-mb=256] [--band-height=64] [--compression=-1..9] [--prefix=frame_]"
+                    + " [--coordinator-port=9090 [--unit-height=16]]");
+            System.exit(2);
+        } catch (IOException ex) {
+            System.err.println("Could not write the frames: " + ex.getMessage());
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            System.exit(1);
+        }
+    }
+
+    private void parseArguments(String args[]) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0)
+                throw new IllegalArgumentException("Unrecognised argument " + arg);
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        if (!options.containsKey("output"))
+            throw new IllegalArgumentException("No --output directory given");
+        if (!options.containsKey("keyframes"))
+            throw new IllegalArgumentException("No --keyframes given");
+    }
+
+    private void run() throws IOException, InterruptedException {
+        ZoomSequenceRenderer renderer = new ZoomSequenceRenderer(parseKeyframes(options.get("keyframes")),
+                intOption("frames-per-segment", DEFAULT_FRAMES_PER_SEGMENT), intOption("width", 800),
+                intOption("height", 600), Paths.get(options.get("output")));
+        if (options.containsKey("palette"))
+            renderer.setPaletteName(options.get("palette"));
+        if (options.containsKey("threads"))
+            renderer.setThreads(intOption("threads", 1));
+        if (options.containsKey("memory-mb"))
+            renderer.setMemoryBudget((long) intOption("memory-mb", 256) << 20);
+        if (options.containsKey("band-height"))
+            renderer.setBandHeight(intOption("band-height", 64));
+        if (options.containsKey("compression"))
+            renderer.setCompressionLevel(intOption("compression", -1));
+        if (options.containsKey("prefix"))
+            renderer.setFilePrefix(options.get("prefix"));
+        RenderCoordinator coordinator = null;
+        if (options.containsKey("coordinator-port")) {
+            coordinator = new RenderCoordinator(intOption("coordinator-port", 0));
+            if (options.containsKey("unit-height"))
+                coordinator.setUnitHeight(intOption("unit-height", 16));
+            coordinator.start();
+            renderer.setCoordinator(coordinator);
+            System.out.println("Waiting for workers on port " + coordinator.getPort());
+        }
+
+        System.out.println(String.format("%d frames, %d rendered at a time", renderer.getFrameCount(),
+                renderer.getConcurrency()));
+        long start = System.nanoTime();
+        int written;
+        try {
+            written = renderer.render((frame, framesWritten, framesToWrite, framesPerMinute) ->
+                    System.out.println(String.format("frame %5d written (%d/%d)  %.1f frames/min", frame,
+                            framesWritten, framesToWrite, framesPerMinute)));
+        } finally {
+            if (coordinator != null) {
+                System.out.println(String.format("%d units calculated by the workers, %d reassigned after %d workers"
+                        + " were lost", coordinator.getUnitsCompleted(), coordinator.getUnitsReassigned(),
+                        coordinator.getWorkersLost()));
+                coordinator.stop();
+            }
+        }
+        double minutes = (System.nanoTime() - start) / 6e10;
+        if (written == 0)
+            System.out.println("All frames exist already");
+        else
+            System.out.println(String.format("Wrote %d frames in %.1f min, %.1f frames/min", written, minutes,
+                    written / minutes));
+    }
+
+    /**
+     * @param keyframes keyframes separated by ';', each one minReal,maxReal,minImaginary,maxImaginary,iterations
+     */
+    private static List<ZoomSequenceRenderer.Keyframe> parseKeyframes(String keyframes) {
+        List<ZoomSequenceRenderer.Keyframe> parsed = new ArrayList<ZoomSequenceRenderer.Keyframe>();
+        for (String keyframe : keyframes.split(";")) {
+            String[] values = keyframe.split(",");
+            if (values.length != 5)
+                throw new IllegalArgumentException("A keyframe needs 5 values, not " + keyframe);
+            try {
+                parsed.add(new ZoomSequenceRenderer.Keyframe(new BigDecimal(values[0].trim()),
+                        new BigDecimal(values[1].trim()), new BigDecimal(values[2].trim()),
+                        new BigDecimal(values[3].trim()), Integer.parseInt(values[4].trim())));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid keyframe " + keyframe);
+            }
+        }
+        return parsed;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("--" + name + " expects an integer, not " + value);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package model;
+
+/**
+ * The ColourPalette class is a lookup table mapping every possible iteration value 0..maxIterations to a packed
+ * ARGB colour. Building the table costs maxIterations + 1 evaluations of the colour formula, after which colouring
+ * a pixel is a single array read, independent of the image size.
+ *
+ * The factory methods reproduce the colour mappings of the model: black and white, the default mapping and the
+ * random mappings chosen by changeColourMapping. Points inside the set (value == maxIterations) are always black.
+ */
+public class ColourPalette {
+
+    private static final int OPAQUE = 0xFF000000;
+    private static final int BLACK = OPAQUE;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private final int maxIterations;
+    private final int[] colours;
+
+    private ColourPalette(int maxIterations) {
+        this.maxIterations = maxIterations;
+        this.colours = new int[maxIterations + 1];
+        colours[maxIterations] = BLACK;
+    }
+
+    public static ColourPalette blackAndWhite(int maxIterations) {
+        ColourPalette palette = new ColourPalette(maxIterations);
+        for (int i = 0; i < maxIterations; i++)
+            palette.colours[i] = WHITE;
+        return palette;
+    }
+
+    /**
+     * The default mapping. Adjacent iteration values -> adjacent colours.
+     * @param maxIterations
+     * @return 
+     */
+    public static ColourPalette defaultMapping(int maxIterations) {
+        ColourPalette palette = new ColourPalette(maxIterations);
+        for (int i = 0; i < maxIterations; i++)
+            palette.colours[i] = rgb(255 - 5 * i % 25, 255 - 5 * i % 256, 255 - 5 * i % 256);
+        return palette;
+    }
+
+    /**
+     * The mapping for a value picked by changeColourMapping.
+     * @param maxIterations
+     * @param randomColourMappingValue a value in [0, MAX_COLOUR_MAPPING_VALUE)
+     * @return 
+     */
+    public static ColourPalette randomMapping(int maxIterations, int randomColourMappingValue) {
+        ColourPalette palette = new ColourPalette(maxIterations);
+        int m = randomColourMappingValue;
+        for (int i = 0; i < maxIterations; i++)
+            palette.colours[i] = rgb(255 - 5 * i % (1 + m), 255 - 5 * i % (1 + (m * m) % 255),
+                    5 * i % (1 + (m * m * m) % 255));
+        return palette;
+    }
+
+    /**
+     * @param colourMappingValue a random mapping value, or a negative value for the default mapping
+     * @param maxIterations
+     * @return the palette used by the model for the given mapping
+     */
+    public static ColourPalette forMapping(int colourMappingValue, int maxIterations) {
+        if (colourMappingValue < 0)
+            return defaultMapping(maxIterations);
+        return randomMapping(maxIterations, colourMappingValue);
+    }
+
+    /**
+     * Parses a palette name as used on the command line.
+     * @param name "default", "bw" for black and white, or a random mapping value in [0, 256)
+     * @param maxIterations
+     * @return the palette
+     * @throws IllegalArgumentException if the name is none of these
+     */
+    public static ColourPalette forName(String name, int maxIterations) {
+        if (name.equals("default"))
+            return defaultMapping(maxIterations);
+        if (name.equals("bw"))
+            return blackAndWhite(maxIterations);
+        try {
+            int value = Integer.parseInt(name);
+            if (value >= 0 && value < 256)
+                return randomMapping(maxIterations, value);
+        } catch (NumberFormatException ex) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Unknown palette " + name);
+    }
+
+    private static int rgb(int red, int green, int blue) {
+        return OPAQUE | (red << 16) | (green << 8) | blue;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @param iterations an iteration value in 0..maxIterations
+     * @return the packed ARGB colour for the value
+     */
+    public int getColour(int iterations) {
+        return colours[iterations];
+    }
+
+    /**
+     * @return the lookup table itself, indexed by iteration value. It must not be modified.
+     */
+    int[] getColours() {
+        return colours;
+    }
+}
@@ -0,0 +1,136 @@
+package model;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * The FrameParameters class bundles the values that stay fixed while one frame (or part of one) is rendered, so that the
+ * tile tasks and kernels can share them instead of passing a long list of arguments around.
+ *
+ * A buffer may hold only part of a larger frame, for example one band of a frame that is too large to keep in memory.
+ * Pixel (x, y) of the buffer is pixel (frameX + x, frameY + y) of the frame, and its constant C is always computed from
+ * the frame position, so a frame rendered in parts is identical to the same frame rendered as a whole.
+ *
+ * Frames too deep for double arithmetic are rendered in double-double precision. Their C is then the unevaluated sum
+ * of real(x) and realLow(x), computed from the low parts of the minimum bounds without rounding the pixel offset.
+ */
+final class FrameParameters {
+
+    final double minReal;
+    final double minRealLow;
+    final double realStep;
+    final double minImaginary;
+    final double minImaginaryLow;
+    final double imaginaryStep;
+    final boolean doubleDouble;
+    final int frameX;
+    final int frameY;
+    final int maxIterations;
+    final double radiusSquared;
+    final BooleanSupplier cancelled;
+    final OrbitState orbits;
+
+    FrameParameters(double minReal, double realStep, double minImaginary, double imaginaryStep, int frameX, int frameY,
+            int maxIterations, double radiusSquared, BooleanSupplier cancelled) {
+        this(minReal, 0, realStep, minImaginary, 0, imaginaryStep, false, frameX, frameY, maxIterations, radiusSquared,
+                cancelled, null);
+    }
+
+    /**
+     * @param minRealLow the low part of the double-double minimum real bound, minReal being the high part
+     * @param doubleDouble true to render the frame with the double-double kernel
+     * @param orbits if not null, collects the state of the pixels that reach maxIterations
+     */
+    FrameParameters(double minReal, double minRealLow, double realStep, double minImaginary, double minImaginaryLow,
+            double imaginaryStep, boolean doubleDouble, int frameX, int frameY, int maxIterations, double radiusSquared,
+            BooleanSupplier cancelled, OrbitState orbits) {
+        this.minReal = minReal;
+        this.minRealLow = minRealLow;
+        this.realStep = realStep;
+        this.minImaginary = minImaginary;
+        this.minImaginaryLow = minImaginaryLow;
+        this.imaginaryStep = imaginaryStep;
+        this.doubleDouble = doubleDouble;
+        this.frameX = frameX;
+        this.frameY = frameY;
+        this.maxIterations = maxIterations;
+        this.radiusSquared = radiusSquared;
+        this.cancelled = cancelled;
+        this.orbits = orbits;
+    }
+
+    /**
+     * @return the same frame, collecting the state of its unresolved pixels in orbits
+     */
+    FrameParameters withOrbits(OrbitState orbits) {
+        return new FrameParameters(minReal, minRealLow, realStep, minImaginary, minImaginaryLow, imaginaryStep,
+                doubleDouble, frameX, frameY, maxIterations, radiusSquared, cancelled, orbits);
+    }
+
+    /**
+     * @return the real component of C for column x of the buffer, the high part for a double-double frame
+     */
+    double real(int x) {
+        if (doubleDouble)
+            return high(minReal, minRealLow, frameX + x, realStep);
+        return minReal + (frameX + x) * realStep;
+    }
+
+    /**
+     * @return the low part of the real component of C for column x of a double-double frame
+     */
+    double realLow(int x) {
+        return low(minReal, minRealLow, frameX + x, realStep);
+    }
+
+    /**
+     * @return the imaginary component of C for row y of the buffer, the high part for a double-double frame
+     */
+    double imaginary(int y) {
+        if (doubleDouble)
+            return high(minImaginary, minImaginaryLow, frameY + y, imaginaryStep);
+        return minImaginary + (frameY + y) * imaginaryStep;
+    }
+
+    /**
+     * @return the low part of the imaginary component of C for row y of a double-double frame
+     */
+    double imaginaryLow(int y) {
+        return low(minImaginary, minImaginaryLow, frameY + y, imaginaryStep);
+    }
+
+    /**
+     * The high part of the double-double min + pixel * step. The product and the sum are evaluated with their
+     * rounding errors (Dekker's product and Knuth's sum), so the offset of a pixel is not lost against min.
+     */
+    private static double high(double min, double minLow, int pixel, double step) {
+        double product = pixel * step;
+        double sum = min + product;
+        return sum + sumAndProductError(min, minLow, pixel, step, product, sum);
+    }
+
+    private static double low(double min, double minLow, int pixel, double step) {
+        double product = pixel * step;
+        double sum = min + product;
+        double error = sumAndProductError(min, minLow, pixel, step, product, sum);
+        return error - ((sum + error) - sum);
+    }
+
+    private static double sumAndProductError(double min, double minLow, int pixel, double step, double product,
+            double sum) {
+        double t = MandelbrotCalculator.SPLITTER * pixel;
+        double pixelHigh = t - (t - pixel);
+        double pixelLow = pixel - pixelHigh;
+        t = MandelbrotCalculator.SPLITTER * step;
+        double stepHigh = t - (t - step);
+        double stepLow = step - stepHigh;
+        double productError = ((pixelHigh * stepHigh - product) + pixelHigh * stepLow + pixelLow * stepHigh)
+                + pixelLow * stepLow;
+        double virtual = sum - min;
+        double sumError = (min - (sum - virtual)) + (product - virtual);
+        return sumError + productError + minLow;
+    }
+
+    boolean isCancelled() {
+        return cancelled.getAsBoolean();
+    }
+}
@@ -1,9 +1,12 @@
 package model;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.Future;
 
 public interface IMandelbrotModel {
     
+    // The state changing methods return immediately. The work is done on a background thread and the observers are notified when it completes.
+    
     public abstract void reset();
 
     public abstract void undo();
@@ -12,7 +15,10 @@ public interface IMandelbrotModel {
 
     public abstract void changeColourMapping();
 
-    public abstract void generate(int minRealPixel, int maxRealPixel, int minImaginaryPixel, int maxImaginaryPixel, int maxIterations, boolean changedScale, double sentRatio);
+    public abstract Future<?> generate(int minRealPixel, int maxRealPixel, int minImaginaryPixel, int maxImaginaryPixel, int maxIterations, boolean changedScale, double sentRatio);
+    
+    // Moves the view so that its content moves by the given pixels, right and down for positive values. Only the newly exposed strips are calculated.
+    public abstract Future<?> pan(int deltaXPixels, int deltaYPixels);
     
     public abstract void setSize(int width, int height);
    
@@ -40,5 +46,11 @@ public interface IMandelbrotModel {
     
     public abstract void setAllParametersFromStrings(String currentMaxIterationsAsString, String currentRatioAsString, String currentMinRealAsString, String currentMaxRealAsString, String currentMinImaginaryAsString, String currentMaxImaginaryAsString);
     
+    // Takes a snapshot of the current frame once the changes queued before are done, so its image, iteration values and parameters match. Later changes do not affect it.
+    public abstract Future<RenderHistory.Snapshot> snapshotCurrentFrame();
+    
+    // Shows a loaded image with its parameters. Without loaded iteration values the set is only recalculated when they are needed.
+    public abstract void loadImage(BufferedImage loadedImage, IterationBuffer loadedIterations, String currentMaxIterationsAsString, String currentRatioAsString, String currentMinRealAsString, String currentMaxRealAsString, String currentMinImaginaryAsString, String currentMaxImaginaryAsString);
+    
     public abstract BufferedImage[] getMultipleImages();
 }
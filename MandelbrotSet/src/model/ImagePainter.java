@@ -0,0 +1,128 @@
+package model;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.stream.IntStream;
+
+/**
+ * The ImagePainter class colours an IterationBuffer into a BufferedImage through a ColourPalette.
+ * It writes packed pixels straight into the image's DataBufferInt, row by row, so no Color objects are created and
+ * no per-pixel setRGB calls are made. Rows are processed in bands of BAND_HEIGHT rows, which are painted in parallel
+ * unless parallel painting has been switched off.
+ *
+ * The target image must be of type TYPE_INT_RGB or TYPE_INT_ARGB; see toIntRgb for converting other images.
+ */
+public class ImagePainter {
+
+    protected static final int BAND_HEIGHT = 32;
+
+    private boolean parallelPainting = true;
+
+    /**
+     * Paints the whole of source into target, with the top left value of source at pixel (targetX, targetY).
+     * Values falling outside the target image are ignored.
+     * @param source
+     * @param palette
+     * @param target
+     * @param targetX
+     * @param targetY 
+     */
+    public void paint(IterationBuffer source, ColourPalette palette, BufferedImage target, int targetX, int targetY) {
+        paint(source, palette, target, targetX, targetY, 0, source.getHeight());
+    }
+
+    /**
+     * Paints the source rows [minY, maxY) into target, splitting them into bands that are painted in parallel.
+     * Rows falling outside the target image are ignored.
+     */
+    public void paint(IterationBuffer source, ColourPalette palette, BufferedImage target, int targetX, int targetY, int minY, int maxY) {
+        int firstY = Math.max(minY, -targetY);
+        int lastY = Math.min(maxY, target.getHeight() - targetY);
+        int bands = (Math.max(0, lastY - firstY) + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        IntStream bandIndices = IntStream.range(0, bands);
+        if (parallelPainting)
+            bandIndices = bandIndices.parallel();
+        bandIndices.forEach(band -> {
+            int bandMinY = firstY + band * BAND_HEIGHT;
+            paintRows(source, palette, target, targetX, targetY, bandMinY, Math.min(lastY, bandMinY + BAND_HEIGHT));
+        });
+    }
+
+    /**
+     * Paints the source rows [minY, maxY) into target. Each row is a sequential read of the source buffer and a
+     * sequential write of the image's scan line.
+     */
+    public void paintRows(IterationBuffer source, ColourPalette palette, BufferedImage target, int targetX, int targetY, int minY, int maxY) {
+        int[] pixels = getPixels(target);
+        int scanlineStride = getScanlineStride(target);
+        int[] colours = palette.getColours();
+        int[] data = source.getData();
+        int sourceWidth = source.getWidth();
+        int minX = Math.max(0, -targetX);
+        int maxX = Math.min(sourceWidth, target.getWidth() - targetX);
+        for (int y = minY; y < maxY; y++) {
+            int sourceOffset = y * sourceWidth;
+            int targetOffset = (y + targetY) * scanlineStride + targetX;
+            for (int x = minX; x < maxX; x++)
+                pixels[targetOffset + x] = colours[data[sourceOffset + x]];
+        }
+    }
+
+    public boolean isParallelPainting() {
+        return parallelPainting;
+    }
+
+    public void setParallelPainting(boolean parallelPainting) {
+        this.parallelPainting = parallelPainting;
+    }
+
+    /**
+     * Copies the pixels of source into target moved deltaX columns to the right and deltaY rows down, with one bulk
+     * copy per scan line. The pixels the move exposes in target are not written, the caller paints them.
+     * @param source an image of type TYPE_INT_RGB or TYPE_INT_ARGB
+     * @param target an image of the same size and type
+     */
+    public static void shift(BufferedImage source, BufferedImage target, int deltaX, int deltaY) {
+        int[] sourcePixels = getPixels(source);
+        int[] targetPixels = getPixels(target);
+        int sourceStride = getScanlineStride(source);
+        int targetStride = getScanlineStride(target);
+        int height = source.getHeight();
+        int columns = source.getWidth() - Math.abs(deltaX);
+        int sourceX = Math.max(0, -deltaX);
+        int targetX = Math.max(0, deltaX);
+        for (int y = Math.max(0, deltaY); y < Math.min(height, height + deltaY); y++)
+            System.arraycopy(sourcePixels, (y - deltaY) * sourceStride + sourceX, targetPixels,
+                    y * targetStride + targetX, columns);
+    }
+
+    /**
+     * @param image an image of type TYPE_INT_RGB or TYPE_INT_ARGB
+     * @return the backing pixel array of the image
+     */
+    static int[] getPixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    static int getScanlineStride(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride();
+    }
+
+    /**
+     * Returns the image itself if the painter can write into it directly, otherwise a TYPE_INT_RGB copy.
+     * Images loaded from disk are usually stored in a byte-based format.
+     * @param image
+     * @return 
+     */
+    public static BufferedImage toIntRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+            return image;
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+}
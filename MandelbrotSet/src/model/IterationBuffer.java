@@ -0,0 +1,98 @@
+package model;
+
+/**
+ * The IterationBuffer class holds the iteration values of a Mandelbrot frame in one flat, row-major int array.
+ * The value for pixel (x, y) is stored at data[y * width + x], so a whole row is contiguous in memory and the
+ * calculator and painters can walk the array sequentially instead of chasing one object per row.
+ *
+ * Buffers are meant to be reused through an IterationBufferPool rather than allocated for every frame.
+ */
+public class IterationBuffer {
+
+    private final int width;
+    private final int height;
+    private final int[] data;
+
+    public IterationBuffer(int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("Invalid buffer size " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.data = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the backing array. Callers index it as data[y * getWidth() + x].
+     */
+    public int[] getData() {
+        return data;
+    }
+
+    public int get(int x, int y) {
+        return data[y * width + x];
+    }
+
+    public void set(int x, int y, int value) {
+        data[y * width + x] = value;
+    }
+
+    public boolean hasSize(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    /**
+     * Moves the values deltaX columns to the right and deltaY rows down, in place. The values moved out of the
+     * buffer are lost and the rows and columns left exposed keep stale values, to be overwritten by the caller.
+     */
+    public void shift(int deltaX, int deltaY) {
+        shift(data, width, width, height, deltaX, deltaY);
+    }
+
+    /**
+     * Moves the width x height pixels of a row-major array with the given scan line stride by (deltaX, deltaY), one
+     * bulk copy per row. Rows are copied in the direction that never overwrites a row before it has been moved, and
+     * System.arraycopy handles the overlap within a row.
+     */
+    static void shift(int[] pixels, int scanlineStride, int width, int height, int deltaX, int deltaY) {
+        int length = width - Math.abs(deltaX);
+        int rows = height - Math.abs(deltaY);
+        if (length <= 0 || rows <= 0)
+            return;
+        int sourceX = Math.max(0, -deltaX);
+        int targetX = Math.max(0, deltaX);
+        for (int row = 0; row < rows; row++) {
+            int sourceY = deltaY > 0 ? rows - 1 - row : row - deltaY;
+            System.arraycopy(pixels, sourceY * scanlineStride + sourceX, pixels,
+                    (sourceY + deltaY) * scanlineStride + targetX, length);
+        }
+    }
+
+    /**
+     * @return a new buffer of the same size holding the same values
+     */
+    public IterationBuffer copy() {
+        IterationBuffer copy = new IterationBuffer(width, height);
+        System.arraycopy(data, 0, copy.data, 0, data.length);
+        return copy;
+    }
+
+    /**
+     * Copies the buffer into a new 2-D array mandelbrotData[height][width], the layout used by the original
+     * calcMandelbrotSet API.
+     * @return 
+     */
+    public int[][] toArray() {
+        int[][] array = new int[height][width];
+        for (int y = 0; y < height; y++)
+            System.arraycopy(data, y * width, array[y], 0, width);
+        return array;
+    }
+}
@@ -0,0 +1,53 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The IterationBufferPool class recycles IterationBuffers by resolution, so that rendering at a fixed frame size
+ * does not allocate a fresh buffer for every frame. A released buffer is handed out again by the next acquire
+ * call for the same width and height. At most MAX_BUFFERS_PER_SIZE idle buffers are kept for each resolution;
+ * any further released buffers are simply left to the garbage collector.
+ */
+public class IterationBufferPool {
+
+    protected static final int MAX_BUFFERS_PER_SIZE = 4;
+
+    private final Map<Long, ArrayDeque<IterationBuffer>> idleBuffers = new HashMap<Long, ArrayDeque<IterationBuffer>>();
+
+    /**
+     * Returns an idle buffer of the requested size, or a new one if none is available.
+     * The content of a recycled buffer is undefined; callers are expected to overwrite every value.
+     * @param width
+     * @param height
+     * @return 
+     */
+    public synchronized IterationBuffer acquire(int width, int height) {
+        ArrayDeque<IterationBuffer> buffers = idleBuffers.get(key(width, height));
+        if (buffers != null && !buffers.isEmpty())
+            return buffers.pop();
+        return new IterationBuffer(width, height);
+    }
+
+    /**
+     * Hands a buffer back to the pool. The caller must not use the buffer afterwards.
+     * @param buffer the buffer to recycle, null is ignored.
+     */
+    public synchronized void release(IterationBuffer buffer) {
+        if (buffer == null)
+            return;
+        Long key = key(buffer.getWidth(), buffer.getHeight());
+        ArrayDeque<IterationBuffer> buffers = idleBuffers.get(key);
+        if (buffers == null) {
+            buffers = new ArrayDeque<IterationBuffer>();
+            idleBuffers.put(key, buffers);
+        }
+        if (buffers.size() < MAX_BUFFERS_PER_SIZE)
+            buffers.push(buffer);
+    }
+
+    private static Long key(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+}
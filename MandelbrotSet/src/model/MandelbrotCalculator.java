@@ -1,5 +1,12 @@
 package model;
 
+import java.math.BigDecimal;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
 /**
  * The MandelbrotCalculator class contains methods which establish the Mandelbrot set.
  * The calcMandelbrotSet method below iterates over X,Y positions and establishes for specified parameter values a 2-D array containing
@@ -11,6 +18,21 @@ package model;
  * MandelbrotCalculator mandelCalc = new MandelbrotCalculator();
  * int[][] madelbrotData = mandelCalc.calcMandelbrotSet(800, 800, MandelbrotCalculator.INITIAL_MIN_REAL, MandelbrotCalculator.INITIAL_MAX_REAL, MandelbrotCalculator.INITIAL_MIN_IMAGINARY, MandelbrotCalculator.INITIAL_MAX_IMAGINARY, MandelbrotCalculator.INITIAL_MAX_ITERATIONS, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
  *
+ * By default the frame is split into tiles which are rendered on a work-stealing ForkJoinPool (see MandelbrotTileTask).
+ * Every pixel is still evaluated with exactly the same arithmetic, so the parallel result is identical to the serial one.
+ * The frame is written into a flat, row-major IterationBuffer; the int[][] variant of calcMandelbrotSet is kept for callers of the original API.
+ * Points are evaluated with an optimised kernel (see calcMandelOptimised) unless setOptimisedKernel(false) selects the original calcMandel.
+ * setStripKernel(true) selects calcMandelStrip for full-resolution tiles, which iterates STRIP_WIDTH neighbouring pixels of a row together.
+ * With setSubdivisionRendering(true) full frames are rendered with the Mariani-Silver algorithm instead (see MandelbrotSubdivisionTask), which skips
+ * the interior of rectangles whose border has a single iteration value; getLastKernelCallsSaved reports how many evaluations that saved.
+ * Rendering into an IterationBuffer can be cancelled through a BooleanSupplier, which is polled once per tile; a cancelled render throws a CancellationException.
+ * Frames whose pixel spacing is too small for double arithmetic (below DOUBLE_PRECISION_LIMIT times their largest coordinate) are evaluated by
+ * calcMandelDoubleDouble in double-double arithmetic instead, which extends the usable zoom by about 9 orders of magnitude. The BigDecimal
+ * variants of calcMandelbrotSet pass the bounds of such frames on without rounding them to double first.
+ * Given an OrbitState, a render records the last Z of the pixels still iterating at maxIterations; resumeMandelbrotSet then raises maxIterations
+ * by continuing only those pixels, and clampMandelbrotSet lowers it without any iteration at all.
+ * Use setParallelRendering(false) to fall back to the single-threaded loop, and setParallelism(int) to choose the number of worker threads.
+ *
  * @author jonl
  *
  */
@@ -25,6 +47,28 @@ public class MandelbrotCalculator {
 
     // Default parameter values
     protected static final double DEFAULT_RADIUS_SQUARED = 4.0;
+    protected static final int PROGRESSIVE_INITIAL_STEP = 4;
+    protected static final int STRIP_WIDTH = 4;
+    protected static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    protected static final BooleanSupplier NEVER_CANCELLED = () -> false;
+    // Number of recorded pixels resumed as one parallel unit by resumeMandelbrotSet
+    protected static final int RESUME_CHUNK_SIZE = 1024;
+    // Frames whose pixel spacing is below this share of their largest coordinate are rendered in double-double precision
+    protected static final double DOUBLE_PRECISION_LIMIT = 1e-12;
+    // Below this share the double-double kernel runs out of digits too, see PerturbationCalculator
+    protected static final double DOUBLE_DOUBLE_PRECISION_LIMIT = 1e-21;
+    // 2^27 + 1, splits a double into two halves whose products are exact (Dekker)
+    static final double SPLITTER = 134217729.0;
+    // The analytic interior tests rely on orbits of points in the set staying within |Z| <= 2
+    private static final double MIN_RADIUS_SQUARED_FOR_INTERIOR_TESTS = 4.0;
+
+    private boolean optimisedKernel = true;
+    private boolean stripKernel = true;
+    private boolean subdivisionRendering = false;
+    private volatile long lastKernelCallsSaved;
+    private boolean parallelRendering = true;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private ForkJoinPool renderPool;
 
     /**
      * Method which calculates the number of iterations over which Z_n+1 = Z_n^2 + C can be applied for Z starting at the origin and a specific constant C (given by its Real and cImaginary components).
@@ -35,9 +79,11 @@ public class MandelbrotCalculator {
      * @param cImaginary the imaginary component (akin to Y component) of the constant C.
      * @param maxIterations the maximum number of iterations over which to iterate the equation until assuming Z will remain bounded.
      * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded. The value used is commonly 4.0.
+     * @param orbits if not null, receives the final Z of the point when it reaches maxIterations, see OrbitState.
+     * @param pixel the buffer index of the point, recorded in orbits.
      * @return the number iterations for the value of Z to grow outside of the bounding radius, or maxIterations if it never escaped.
      */
-    private int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared){
+    private int calcMandel(double cReal, double cImaginary, int maxIterations, double radiusSquared, OrbitState orbits, int pixel){
         // To work out Z_n+1 = Z_n^2 + C and establish whether C is in the Mandelbrot set or not
         // we need to
         //    square the current value of Z
@@ -62,11 +108,280 @@ public class MandelbrotCalculator {
                 outside = true;
             iterations++;
         }
+        if (orbits != null && iterations == maxIterations) {
+            if (outside)
+                orbits.addEscapedAtLimit(pixel);
+            else
+                orbits.add(pixel, zr, zi);
+        }
         return iterations;
     }
 
 
 
+    /**
+     * Optimised version of calcMandel which returns exactly the same number of iterations, but avoids most of the work for points inside the set.
+     * <ul>
+     * <li>Points inside the main cardioid or the period-2 bulb are known analytically to be in the set, so maxIterations is returned straight away.</li>
+     * <li>Brent-style periodicity detection: Z is saved after 1, 2, 4, 8, ... iterations and compared with every following value.
+     *     If the orbit returns exactly to a saved value it is periodic and can never escape, so maxIterations is returned. Only exact equality is
+     *     used, which keeps the result identical to calcMandel.</li>
+     * <li>The loop has a single exit test and no flag variable, which leaves the JIT free to unroll it.</li>
+     * </ul>
+     * Points proven to be in the set are not recorded in orbits, as no number of further iterations can change their result.
+     */
+    private int calcMandelOptimised(double cReal, double cImaginary, int maxIterations, double radiusSquared, OrbitState orbits, int pixel){
+        if (maxIterations <= 0)
+            return 0;
+        if (radiusSquared >= MIN_RADIUS_SQUARED_FOR_INTERIOR_TESTS && isInMainCardioidOrPeriod2Bulb(cReal, cImaginary))
+            return maxIterations;
+        double zr = 0;
+        double zi = 0;
+        double savedZr = 0;
+        double savedZi = 0;
+        int savedAfter = 1;
+        int sinceSaved = 0;
+        for (int iterations = 0; iterations < maxIterations; iterations++) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            if ((zr2 + zi2) > radiusSquared) {
+                if (orbits != null && iterations + 1 == maxIterations)
+                    orbits.addEscapedAtLimit(pixel);
+                return iterations + 1;
+            }
+            zi = 2 * zr * zi + cImaginary;
+            zr = zr2 - zi2 + cReal;
+            if (zr == savedZr && zi == savedZi)
+                return maxIterations;
+            if (++sinceSaved == savedAfter) {
+                savedZr = zr;
+                savedZi = zi;
+                sinceSaved = 0;
+                savedAfter <<= 1;
+            }
+        }
+        if (orbits != null)
+            orbits.add(pixel, zr, zi);
+        return maxIterations;
+    }
+
+    /**
+     * Double-double version of calcMandel which returns the iterations for C = (cRealHigh + cRealLow) + i * (cImaginaryHigh + cImaginaryLow).
+     * Every value is held as the unevaluated sum of a high and a low double, which gives about 32 significant digits instead of 16.
+     * Products are split with Dekker's method and sums use Knuth's two-sum, so no rounding error is lost and no fused multiply-add is needed.
+     * All state lives in primitive locals, so the loop allocates nothing. The escape test uses the high parts only, which cannot change the result.
+     */
+    private static int calcMandelDoubleDouble(double cRealHigh, double cRealLow, double cImaginaryHigh, double cImaginaryLow, int maxIterations, double radiusSquared){
+        double zrHigh = 0, zrLow = 0, ziHigh = 0, ziLow = 0;
+        for (int iterations = 0; iterations < maxIterations; iterations++) {
+            // zr^2
+            double t = SPLITTER * zrHigh;
+            double zrSplitHigh = t - (t - zrHigh);
+            double zrSplitLow = zrHigh - zrSplitHigh;
+            double product = zrHigh * zrHigh;
+            double error = ((zrSplitHigh * zrSplitHigh - product) + 2 * zrSplitHigh * zrSplitLow) + zrSplitLow * zrSplitLow + 2 * zrHigh * zrLow;
+            double zr2High = product + error;
+            double zr2Low = error - (zr2High - product);
+            // zi^2
+            t = SPLITTER * ziHigh;
+            double ziSplitHigh = t - (t - ziHigh);
+            double ziSplitLow = ziHigh - ziSplitHigh;
+            product = ziHigh * ziHigh;
+            error = ((ziSplitHigh * ziSplitHigh - product) + 2 * ziSplitHigh * ziSplitLow) + ziSplitLow * ziSplitLow + 2 * ziHigh * ziLow;
+            double zi2High = product + error;
+            double zi2Low = error - (zi2High - product);
+            if ((zr2High + zi2High) > radiusSquared)
+                return iterations + 1;
+            // 2 * zr * zi, doubling is exact
+            product = zrHigh * ziHigh;
+            error = ((zrSplitHigh * ziSplitHigh - product) + zrSplitHigh * ziSplitLow + zrSplitLow * ziSplitHigh) + zrSplitLow * ziSplitLow + zrHigh * ziLow + zrLow * ziHigh;
+            double crossHigh = 2 * (product + error);
+            double crossLow = 2 * (error - ((product + error) - product));
+            // zi = 2 * zr * zi + ci
+            double sum = crossHigh + cImaginaryHigh;
+            double virtual = sum - crossHigh;
+            error = (crossHigh - (sum - virtual)) + (cImaginaryHigh - virtual) + crossLow + cImaginaryLow;
+            ziHigh = sum + error;
+            ziLow = error - (ziHigh - sum);
+            // zr = zr^2 - zi^2 + cr
+            sum = zr2High - zi2High;
+            virtual = sum - zr2High;
+            error = (zr2High - (sum - virtual)) + (-zi2High - virtual) + zr2Low - zi2Low;
+            double differenceHigh = sum + error;
+            double differenceLow = error - (differenceHigh - sum);
+            sum = differenceHigh + cRealHigh;
+            virtual = sum - differenceHigh;
+            error = (differenceHigh - (sum - virtual)) + (cRealHigh - virtual) + differenceLow + cRealLow;
+            zrHigh = sum + error;
+            zrLow = error - (zrHigh - sum);
+        }
+        return maxIterations;
+    }
+
+    /**
+     * The main cardioid is q * (q + (x - 1/4)) < y^2 / 4 with q = (x - 1/4)^2 + y^2, the period-2 bulb is the disc (x + 1)^2 + y^2 < 1/16.
+     */
+    private static boolean isInMainCardioidOrPeriod2Bulb(double cReal, double cImaginary) {
+        double imaginarySquared = cImaginary * cImaginary;
+        double shiftedReal = cReal - 0.25;
+        double q = shiftedReal * shiftedReal + imaginarySquared;
+        if (q * (q + shiftedReal) < 0.25 * imaginarySquared)
+            return true;
+        double bulbReal = cReal + 1;
+        return bulbReal * bulbReal + imaginarySquared < 0.0625;
+    }
+
+    /**
+     * Strip version of calcMandel which iterates the STRIP_WIDTH = 4 pixels x .. x + 3 of one row together, one lane per pixel.
+     * The four orbits are independent, so the CPU can overlap their multiply-add chains instead of waiting on the latency of a single one,
+     * the same way a SIMD unit would process four lanes. A lane whose Z has escaped is masked out: its iteration count is frozen, while
+     * its arithmetic carries on harmlessly until every lane has escaped or maxIterations is reached.
+     * Each lane performs exactly the arithmetic of calcMandel, so the results are identical. When the optimised kernel is enabled, lanes
+     * inside the main cardioid or period-2 bulb start masked out with maxIterations, and each lane has the periodicity detection of
+     * calcMandelOptimised: the lanes start together, so they share its schedule of saving Z, and a lane whose orbit returns exactly to
+     * its saved value is masked out with maxIterations.
+     * Lanes still active at maxIterations are recorded in orbits, if it is not null; lanes proven to be in the set are not.
+     */
+    private void calcMandelStrip(int[] data, int offset, int x, double cImaginary, FrameParameters frame, OrbitState orbits){
+        int maxIterations = frame.maxIterations;
+        double radiusSquared = frame.radiusSquared;
+        double cr0 = frame.real(x);
+        double cr1 = frame.real(x + 1);
+        double cr2 = frame.real(x + 2);
+        double cr3 = frame.real(x + 3);
+        int n0 = maxIterations, n1 = maxIterations, n2 = maxIterations, n3 = maxIterations;
+        int active = 0b1111;
+        if (optimisedKernel && radiusSquared >= MIN_RADIUS_SQUARED_FOR_INTERIOR_TESTS) {
+            if (isInMainCardioidOrPeriod2Bulb(cr0, cImaginary)) active &= ~0b0001;
+            if (isInMainCardioidOrPeriod2Bulb(cr1, cImaginary)) active &= ~0b0010;
+            if (isInMainCardioidOrPeriod2Bulb(cr2, cImaginary)) active &= ~0b0100;
+            if (isInMainCardioidOrPeriod2Bulb(cr3, cImaginary)) active &= ~0b1000;
+        }
+        int iterated = active;
+        boolean periodicity = optimisedKernel;
+        double zr0 = 0, zi0 = 0, zr1 = 0, zi1 = 0, zr2 = 0, zi2 = 0, zr3 = 0, zi3 = 0;
+        double savedZr0 = 0, savedZi0 = 0, savedZr1 = 0, savedZi1 = 0, savedZr2 = 0, savedZi2 = 0, savedZr3 = 0, savedZi3 = 0;
+        int savedAfter = 1;
+        int sinceSaved = 0;
+        for (int iterations = 0; iterations < maxIterations && active != 0; iterations++) {
+            double zrSq0 = zr0 * zr0, ziSq0 = zi0 * zi0;
+            double zrSq1 = zr1 * zr1, ziSq1 = zi1 * zi1;
+            double zrSq2 = zr2 * zr2, ziSq2 = zi2 * zi2;
+            double zrSq3 = zr3 * zr3, ziSq3 = zi3 * zi3;
+            if ((active & 0b0001) != 0 && zrSq0 + ziSq0 > radiusSquared) { n0 = iterations + 1; active &= ~0b0001; }
+            if ((active & 0b0010) != 0 && zrSq1 + ziSq1 > radiusSquared) { n1 = iterations + 1; active &= ~0b0010; }
+            if ((active & 0b0100) != 0 && zrSq2 + ziSq2 > radiusSquared) { n2 = iterations + 1; active &= ~0b0100; }
+            if ((active & 0b1000) != 0 && zrSq3 + ziSq3 > radiusSquared) { n3 = iterations + 1; active &= ~0b1000; }
+            zi0 = 2 * zr0 * zi0 + cImaginary; zr0 = zrSq0 - ziSq0 + cr0;
+            zi1 = 2 * zr1 * zi1 + cImaginary; zr1 = zrSq1 - ziSq1 + cr1;
+            zi2 = 2 * zr2 * zi2 + cImaginary; zr2 = zrSq2 - ziSq2 + cr2;
+            zi3 = 2 * zr3 * zi3 + cImaginary; zr3 = zrSq3 - ziSq3 + cr3;
+            if (periodicity) {
+                // periodic lanes keep n = maxIterations and are neither active nor recorded
+                if ((active & 0b0001) != 0 && zr0 == savedZr0 && zi0 == savedZi0) { active &= ~0b0001; iterated &= ~0b0001; }
+                if ((active & 0b0010) != 0 && zr1 == savedZr1 && zi1 == savedZi1) { active &= ~0b0010; iterated &= ~0b0010; }
+                if ((active & 0b0100) != 0 && zr2 == savedZr2 && zi2 == savedZi2) { active &= ~0b0100; iterated &= ~0b0100; }
+                if ((active & 0b1000) != 0 && zr3 == savedZr3 && zi3 == savedZi3) { active &= ~0b1000; iterated &= ~0b1000; }
+                if (++sinceSaved == savedAfter) {
+                    savedZr0 = zr0; savedZi0 = zi0;
+                    savedZr1 = zr1; savedZi1 = zi1;
+                    savedZr2 = zr2; savedZi2 = zi2;
+                    savedZr3 = zr3; savedZi3 = zi3;
+                    sinceSaved = 0;
+                    savedAfter <<= 1;
+                }
+            }
+        }
+        data[offset + x] = n0;
+        data[offset + x + 1] = n1;
+        data[offset + x + 2] = n2;
+        data[offset + x + 3] = n3;
+        if (orbits != null) {
+            recordLane(orbits, offset + x, active & 0b0001, iterated & 0b0001, n0 == maxIterations, zr0, zi0);
+            recordLane(orbits, offset + x + 1, active & 0b0010, iterated & 0b0010, n1 == maxIterations, zr1, zi1);
+            recordLane(orbits, offset + x + 2, active & 0b0100, iterated & 0b0100, n2 == maxIterations, zr2, zi2);
+            recordLane(orbits, offset + x + 3, active & 0b1000, iterated & 0b1000, n3 == maxIterations, zr3, zi3);
+        }
+    }
+
+    /**
+     * Records one lane of calcMandelStrip: a lane still active has not escaped, a lane that was iterated and stopped at maxIterations escaped
+     * on the last iteration. Lanes skipped as interior are not recorded.
+     */
+    private static void recordLane(OrbitState orbits, int pixel, int active, int iterated, boolean atLimit, double zr, double zi){
+        if (active != 0)
+            orbits.add(pixel, zr, zi);
+        else if (iterated != 0 && atLimit)
+            orbits.addEscapedAtLimit(pixel);
+    }
+
+    /**
+     * Evaluates one point with the kernel selected by setOptimisedKernel, recording it in orbits if that is not null.
+     */
+    private int calcPoint(double cReal, double cImaginary, int maxIterations, double radiusSquared, OrbitState orbits, int pixel){
+        if (optimisedKernel)
+            return calcMandelOptimised(cReal, cImaginary, maxIterations, radiusSquared, orbits, pixel);
+        return calcMandel(cReal, cImaginary, maxIterations, radiusSquared, orbits, pixel);
+    }
+
+    /**
+     * Evaluates pixel (x, y) of the buffer, with the double-double kernel if the frame needs it.
+     */
+    int calcFramePoint(int x, int y, FrameParameters frame){
+        return calcFramePoint(x, y, frame, null, 0);
+    }
+
+    /**
+     * Evaluates pixel (x, y) of the buffer and records it in orbits under the buffer index pixel. Double-double frames are never recorded.
+     */
+    private int calcFramePoint(int x, int y, FrameParameters frame, OrbitState orbits, int pixel){
+        if (frame.doubleDouble)
+            return calcMandelDoubleDouble(frame.real(x), frame.realLow(x), frame.imaginary(y), frame.imaginaryLow(y), frame.maxIterations, frame.radiusSquared);
+        return calcPoint(frame.real(x), frame.imaginary(y), frame.maxIterations, frame.radiusSquared, orbits, pixel);
+    }
+
+    /**
+     * @return true if neighbouring pixels of a frame with the given bounds and pixel spacing cannot be told apart in double precision
+     */
+    static boolean needsDoubleDouble(double minReal, double maxReal, double minImaginary, double maxImaginary, double realStep, double imaginaryStep){
+        double magnitude = Math.max(Math.max(Math.abs(minReal), Math.abs(maxReal)), Math.max(Math.abs(minImaginary), Math.abs(maxImaginary)));
+        return Math.min(Math.abs(realStep), Math.abs(imaginaryStep)) < magnitude * DOUBLE_PRECISION_LIMIT;
+    }
+
+    /**
+     * @return true if the BigDecimal calcMandelbrotSet renders a frame with these bounds in double-double precision, false if the bounds rounded to double describe it
+     */
+    public static boolean isDoubleDoubleNeeded(BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int xResolution, int yResolution){
+        double realStep = maxReal.subtract(minReal).doubleValue()/xResolution;
+        double imaginaryStep = maxImaginary.subtract(minImaginary).doubleValue()/yResolution;
+        return needsDoubleDouble(minReal.doubleValue(), maxReal.doubleValue(), minImaginary.doubleValue(), maxImaginary.doubleValue(), realStep, imaginaryStep);
+    }
+
+    /**
+     * The frame for double bounds, in double-double precision if its pixel spacing requires it.
+     */
+    private static FrameParameters createFrame(int frameX, int frameY, int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, BooleanSupplier cancelled){
+        double realStep = (maxReal - minReal)/xResolution;
+        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+        boolean doubleDouble = needsDoubleDouble(minReal, maxReal, minImaginary, maxImaginary, realStep, imaginaryStep);
+        return new FrameParameters(minReal, 0, realStep, minImaginary, 0, imaginaryStep, doubleDouble, frameX, frameY, maxIterations, radiusSquared, cancelled, null);
+    }
+
+    /**
+     * The frame for exact bounds. A frame that double arithmetic resolves gets exactly the parameters its double bounds would give, otherwise the
+     * bounds are split into high and low parts and the steps are taken from the exact spans.
+     */
+    private static FrameParameters createFrame(int xResolution, int yResolution, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, BooleanSupplier cancelled){
+        FrameParameters frame = createFrame(0, 0, xResolution, yResolution, minReal.doubleValue(), maxReal.doubleValue(), minImaginary.doubleValue(), maxImaginary.doubleValue(), maxIterations, radiusSquared, cancelled);
+        double realStep = maxReal.subtract(minReal).doubleValue()/xResolution;
+        double imaginaryStep = maxImaginary.subtract(minImaginary).doubleValue()/yResolution;
+        if (!needsDoubleDouble(frame.minReal, maxReal.doubleValue(), frame.minImaginary, maxImaginary.doubleValue(), realStep, imaginaryStep))
+            return frame;
+        double minRealLow = minReal.subtract(new BigDecimal(frame.minReal)).doubleValue();
+        double minImaginaryLow = minImaginary.subtract(new BigDecimal(frame.minImaginary)).doubleValue();
+        return new FrameParameters(frame.minReal, minRealLow, realStep, frame.minImaginary, minImaginaryLow, imaginaryStep, true, 0, 0, maxIterations, radiusSquared, cancelled, null);
+    }
+
     /**
      * Method to calculate the Mandelbrot set for the given parameter settings.
      * @param xResolution the number of pixels on the x-axis in your GUI display.
@@ -79,22 +394,550 @@ public class MandelbrotCalculator {
      * @return the 2-D integer array mandelbrotData[yResolution][xResolution] containing the for each [y][x] pixel the number of iterations needed until Z escaped the bounding radius, or maxIterations otherwise.
      */
     public int[][] calcMandelbrotSet(int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
-        int[][] mandelbrotData = new int[yResolution][xResolution];
-        double realRange = maxReal - minReal;
+        IterationBuffer mandelbrotData = new IterationBuffer(xResolution, yResolution);
+        calcMandelbrotSet(mandelbrotData, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared);
+        return mandelbrotData.toArray();
+    }
 
-        double realStep = (maxReal - minReal)/xResolution;
-        double imaginaryStep = (maxImaginary - minImaginary)/yResolution;
+    /**
+     * Method to calculate the Mandelbrot set into an existing buffer. The resolution is taken from the buffer, whose previous content is overwritten.
+     * @param mandelbrotData the buffer receiving for each (x, y) pixel the number of iterations needed until Z escaped the bounding radius, or maxIterations otherwise.
+     * @param minReal the lower real bound for the complex constant C
+     * @param maxReal the upper real bound for the complex constant C
+     * @param minImaginary the lower imaginary bound for the complex constant C
+     * @param maxImaginary the upper imaginary bound for the complex constant C
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     */
+    public void calcMandelbrotSet(IterationBuffer mandelbrotData, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared){
+        calcMandelbrotSet(mandelbrotData, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, NEVER_CANCELLED);
+    }
+
+    /**
+     * Method to calculate the Mandelbrot set into an existing buffer, giving up as soon as cancelled returns true.
+     * @param cancelled polled before each tile is rendered.
+     * @throws CancellationException if the render was cancelled. The content of the buffer is then undefined.
+     */
+    public void calcMandelbrotSet(IterationBuffer mandelbrotData, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, BooleanSupplier cancelled){
+        calcMandelbrotRegion(mandelbrotData, 0, 0, mandelbrotData.getWidth(), mandelbrotData.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled);
+    }
+
+    /**
+     * Method to calculate part of a frame. The frame has xResolution x yResolution pixels spanning the given bounds, and the buffer receives the
+     * pixels [frameX, frameX + width) x [frameY, frameY + height) of it. Every pixel gets exactly the value a render of the whole frame would give it,
+     * so a frame can be rendered band by band, or only its newly exposed strips re-rendered.
+     * @param mandelbrotData the buffer receiving the iteration values of the region
+     * @param frameX the frame column of the first buffer column
+     * @param frameY the frame row of the first buffer row
+     * @param xResolution the number of pixels on the x-axis of the whole frame
+     * @param yResolution the number of pixels on the y-axis of the whole frame
+     * @param minReal the lower real bound of the whole frame
+     * @param maxReal the upper real bound of the whole frame
+     * @param minImaginary the lower imaginary bound of the whole frame
+     * @param maxImaginary the upper imaginary bound of the whole frame
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @param cancelled polled before each tile is rendered.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotRegion(IterationBuffer mandelbrotData, int frameX, int frameY, int xResolution, int yResolution, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, BooleanSupplier cancelled){
+        calcFrame(mandelbrotData, createFrame(frameX, frameY, xResolution, yResolution, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled));
+    }
 
+    /**
+     * Method to calculate the Mandelbrot set into an existing buffer for bounds given at full precision. Frames that are too deep for double
+     * arithmetic are rendered in double-double precision, all others exactly like the double variant renders the bounds rounded to double.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotSet(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, BooleanSupplier cancelled){
+        calcMandelbrotSet(mandelbrotData, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, null, cancelled);
+    }
+
+    /**
+     * Variant of the BigDecimal calcMandelbrotSet which also records the state of every pixel still iterating at maxIterations, so that
+     * resumeMandelbrotSet can later raise maxIterations without rendering the frame again.
+     * @param orbits an empty state, complete afterwards unless the frame needed double-double precision or subdivision rendering is enabled.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotSet(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, OrbitState orbits, BooleanSupplier cancelled){
+        FrameParameters frame = createFrame(mandelbrotData.getWidth(), mandelbrotData.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled);
+        if (subdivisionRendering || orbits == null) {
+            calcFrame(mandelbrotData, frame);
+            return;
+        }
+        frame = frame.withOrbits(orbits);
+        calcFrame(mandelbrotData, frame);
+        completeOrbits(frame);
+    }
+
+    private void calcFrame(IterationBuffer mandelbrotData, FrameParameters frame){
+        if (subdivisionRendering)
+            calcSubdivided(mandelbrotData, frame);
+        else
+            calcPass(mandelbrotData, 1, 0, frame);
+    }
+
+    /**
+     * Renders the whole buffer by rectangle subdivision and records the number of kernel calls saved compared to brute force.
+     */
+    private void calcSubdivided(IterationBuffer mandelbrotData, FrameParameters frame){
+        if (mandelbrotData.getWidth() == 0 || mandelbrotData.getHeight() == 0)
+            return;
+        boolean parallel = parallelRendering && parallelism > 1;
+        LongAdder kernelCalls = new LongAdder();
+        MandelbrotSubdivisionTask root = new MandelbrotSubdivisionTask(this, mandelbrotData, 0, 0,
+                mandelbrotData.getWidth() - 1, mandelbrotData.getHeight() - 1, frame, parallel, kernelCalls);
+        root.calcBorder();
+        if (parallel)
+            getRenderPool().invoke(root);
+        else
+            root.compute();
+        if (frame.isCancelled())
+            throw new CancellationException("Mandelbrot render cancelled");
+        lastKernelCallsSaved = (long) mandelbrotData.getWidth() * mandelbrotData.getHeight() - kernelCalls.sum();
+    }
 
-        for (int y = 0; y < yResolution; y++) {
-            double cImaginary = minImaginary + y * imaginaryStep;
-            for (int x = 0; x < xResolution; x++) {
-                double cReal = minReal + x * realStep;
-                mandelbrotData[y][x] = calcMandel(cReal, cImaginary, maxIterations, radiusSquared);
-                cReal = cReal + realStep;
+    /**
+     * Method to calculate the Mandelbrot set progressively, from a coarse preview to the full resolution.
+     * The first pass evaluates one pixel in every PROGRESSIVE_INITIAL_STEP x PROGRESSIVE_INITIAL_STEP block (1/16 of the pixels) and fills the
+     * whole block with its value. Every following pass halves the block size and evaluates only the pixels that no earlier pass has evaluated,
+     * so each pixel is computed exactly once and the final buffer is identical to the one calcMandelbrotSet produces.
+     * @param mandelbrotData the buffer receiving the iteration values, overwritten pass by pass
+     * @param minReal the lower real bound for the complex constant C
+     * @param maxReal the upper real bound for the complex constant C
+     * @param minImaginary the lower imaginary bound for the complex constant C
+     * @param maxImaginary the upper imaginary bound for the complex constant C
+     * @param maxIterations the maximum number of iterations to iterate the complex formula
+     * @param radiusSquared the squared of the radius to use when determining whether Z escaped the circle in the complex plain or remained bounded.
+     * @param passListener called after each pass, when the whole buffer holds a valid (if blocky) image. May be null.
+     * @param cancelled polled before each tile is rendered.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotSetProgressive(IterationBuffer mandelbrotData, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared, Runnable passListener, BooleanSupplier cancelled){
+        calcProgressive(mandelbrotData, createFrame(0, 0, mandelbrotData.getWidth(), mandelbrotData.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled), passListener);
+    }
+
+    /**
+     * Progressive variant of the BigDecimal calcMandelbrotSet.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotSetProgressive(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, Runnable passListener, BooleanSupplier cancelled){
+        calcMandelbrotSetProgressive(mandelbrotData, minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, null, passListener, cancelled);
+    }
+
+    /**
+     * Progressive variant of the BigDecimal calcMandelbrotSet which records the state of the unresolved pixels in orbits.
+     * @throws CancellationException if the render was cancelled.
+     */
+    public void calcMandelbrotSetProgressive(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, OrbitState orbits, Runnable passListener, BooleanSupplier cancelled){
+        FrameParameters frame = createFrame(mandelbrotData.getWidth(), mandelbrotData.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled);
+        if (orbits == null) {
+            calcProgressive(mandelbrotData, frame, passListener);
+            return;
+        }
+        frame = frame.withOrbits(orbits);
+        calcProgressive(mandelbrotData, frame, passListener);
+        completeOrbits(frame);
+    }
+
+    private static void completeOrbits(FrameParameters frame){
+        if (!frame.doubleDouble)
+            frame.orbits.complete(frame.maxIterations);
+    }
+
+    /**
+     * Raises the maxIterations of a frame rendered with orbits recorded. Only the pixels recorded in orbits are iterated further, starting from
+     * their saved Z, so the cost is that of the pixels still undecided rather than of the whole frame. Pixels proven to be in the set are set to
+     * the new maxIterations without any work. Afterwards the buffer is identical to a render at the new maxIterations and orbits describes it,
+     * so the frame can be raised again.
+     * @param mandelbrotData the buffer holding the frame rendered at orbits.getMaxIterations()
+     * @param maxIterations the new maxIterations, at least orbits.getMaxIterations()
+     * @param orbits the complete state recorded when the frame was rendered
+     * @param cancelled polled before each chunk of pixels is resumed.
+     * @throws CancellationException if the resume was cancelled. The buffer and orbits are then undefined.
+     */
+    public void resumeMandelbrotSet(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared, OrbitState orbits, BooleanSupplier cancelled){
+        if (!orbits.isComplete())
+            throw new IllegalArgumentException("orbit state is not complete");
+        int previousMaxIterations = orbits.getMaxIterations();
+        if (maxIterations < previousMaxIterations)
+            throw new IllegalArgumentException("maxIterations " + maxIterations + " is below the recorded " + previousMaxIterations);
+        FrameParameters frame = createFrame(mandelbrotData.getWidth(), mandelbrotData.getHeight(), minReal, maxReal, minImaginary, maxImaginary, maxIterations, radiusSquared, cancelled);
+        int[] data = mandelbrotData.getData();
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == previousMaxIterations)
+                data[i] = maxIterations;
+        }
+        int chunks = (orbits.getCount() + RESUME_CHUNK_SIZE - 1) / RESUME_CHUNK_SIZE;
+        if (parallelRendering && parallelism > 1)
+            getRenderPool().submit(() -> IntStream.range(0, chunks).parallel().forEach(chunk -> resumeChunk(data, mandelbrotData.getWidth(), chunk, previousMaxIterations, frame, orbits))).join();
+        else {
+            for (int chunk = 0; chunk < chunks; chunk++)
+                resumeChunk(data, mandelbrotData.getWidth(), chunk, previousMaxIterations, frame, orbits);
+        }
+        if (frame.isCancelled())
+            throw new CancellationException("Mandelbrot render cancelled");
+        orbits.complete(maxIterations);
+    }
+
+    /**
+     * Continues the pixels of one chunk of orbits from previousMaxIterations to the frame's maxIterations, with the arithmetic of calcMandel.
+     * With the optimised kernel, pixels in the main cardioid or period-2 bulb and orbits found to be periodic are settled as in
+     * calcMandelOptimised and dropped from orbits, so a later raise does not iterate them again.
+     */
+    private void resumeChunk(int[] data, int width, int chunk, int previousMaxIterations, FrameParameters frame, OrbitState orbits){
+        if (frame.isCancelled())
+            return;
+        int maxIterations = frame.maxIterations;
+        double radiusSquared = frame.radiusSquared;
+        boolean interiorTests = optimisedKernel && radiusSquared >= MIN_RADIUS_SQUARED_FOR_INTERIOR_TESTS;
+        int end = Math.min(orbits.getCount(), (chunk + 1) * RESUME_CHUNK_SIZE);
+        int index = chunk * RESUME_CHUNK_SIZE;
+        if (stripKernel) {
+            for (; index + STRIP_WIDTH <= end; index += STRIP_WIDTH)
+                resumeStrip(data, width, index, previousMaxIterations, interiorTests, frame, orbits);
+        }
+        for (; index < end; index++) {
+            int pixel = orbits.getPixel(index);
+            if (orbits.isEscapedAtLimit(index)) {
+                data[pixel] = previousMaxIterations;
+                orbits.remove(index);
+                continue;
             }
+            double cReal = frame.real(pixel % width);
+            double cImaginary = frame.imaginary(pixel / width);
+            if (!interiorTests)
+                data[pixel] = resumePoint(orbits, index, cReal, cImaginary, previousMaxIterations, maxIterations, radiusSquared);
+            else if (isInMainCardioidOrPeriod2Bulb(cReal, cImaginary))
+                orbits.remove(index);
+            else
+                data[pixel] = resumePointOptimised(orbits, index, cReal, cImaginary, previousMaxIterations, maxIterations, radiusSquared);
+        }
+    }
+
+    /**
+     * Strip version of resumePoint which continues the STRIP_WIDTH = 4 recorded pixels index .. index + 3 together, one lane per pixel, with
+     * the lane masking of calcMandelStrip. With interiorTests, lanes in the main cardioid or period-2 bulb are dropped without iterating and
+     * each lane has the periodicity detection of resumePointOptimised, like the scalar path of resumeChunk.
+     */
+    private static void resumeStrip(int[] data, int width, int index, int previousMaxIterations, boolean interiorTests, FrameParameters frame, OrbitState orbits){
+        int maxIterations = frame.maxIterations;
+        double radiusSquared = frame.radiusSquared;
+        int p0 = orbits.getPixel(index), p1 = orbits.getPixel(index + 1), p2 = orbits.getPixel(index + 2), p3 = orbits.getPixel(index + 3);
+        double cr0 = frame.real(p0 % width), ci0 = frame.imaginary(p0 / width);
+        double cr1 = frame.real(p1 % width), ci1 = frame.imaginary(p1 / width);
+        double cr2 = frame.real(p2 % width), ci2 = frame.imaginary(p2 / width);
+        double cr3 = frame.real(p3 % width), ci3 = frame.imaginary(p3 / width);
+        double zr0 = orbits.getReal(index), zi0 = orbits.getImaginary(index);
+        double zr1 = orbits.getReal(index + 1), zi1 = orbits.getImaginary(index + 1);
+        double zr2 = orbits.getReal(index + 2), zi2 = orbits.getImaginary(index + 2);
+        double zr3 = orbits.getReal(index + 3), zi3 = orbits.getImaginary(index + 3);
+        int n0 = maxIterations, n1 = maxIterations, n2 = maxIterations, n3 = maxIterations;
+        int active = 0b1111;
+        // lanes that escaped on the last iteration before keep their value
+        if (Double.isNaN(zr0)) { n0 = previousMaxIterations; active &= ~0b0001; zr0 = 0; zi0 = 0; }
+        if (Double.isNaN(zr1)) { n1 = previousMaxIterations; active &= ~0b0010; zr1 = 0; zi1 = 0; }
+        if (Double.isNaN(zr2)) { n2 = previousMaxIterations; active &= ~0b0100; zr2 = 0; zi2 = 0; }
+        if (Double.isNaN(zr3)) { n3 = previousMaxIterations; active &= ~0b1000; zr3 = 0; zi3 = 0; }
+        if (interiorTests) {
+            if (isInMainCardioidOrPeriod2Bulb(cr0, ci0)) active &= ~0b0001;
+            if (isInMainCardioidOrPeriod2Bulb(cr1, ci1)) active &= ~0b0010;
+            if (isInMainCardioidOrPeriod2Bulb(cr2, ci2)) active &= ~0b0100;
+            if (isInMainCardioidOrPeriod2Bulb(cr3, ci3)) active &= ~0b1000;
+        }
+        int resumed = active;
+        double savedZr0 = zr0, savedZi0 = zi0, savedZr1 = zr1, savedZi1 = zi1, savedZr2 = zr2, savedZi2 = zi2, savedZr3 = zr3, savedZi3 = zi3;
+        int savedAfter = 1;
+        int sinceSaved = 0;
+        for (int iterations = previousMaxIterations; iterations < maxIterations && active != 0; iterations++) {
+            double zrSq0 = zr0 * zr0, ziSq0 = zi0 * zi0;
+            double zrSq1 = zr1 * zr1, ziSq1 = zi1 * zi1;
+            double zrSq2 = zr2 * zr2, ziSq2 = zi2 * zi2;
+            double zrSq3 = zr3 * zr3, ziSq3 = zi3 * zi3;
+            if ((active & 0b0001) != 0 && zrSq0 + ziSq0 > radiusSquared) { n0 = iterations + 1; active &= ~0b0001; }
+            if ((active & 0b0010) != 0 && zrSq1 + ziSq1 > radiusSquared) { n1 = iterations + 1; active &= ~0b0010; }
+            if ((active & 0b0100) != 0 && zrSq2 + ziSq2 > radiusSquared) { n2 = iterations + 1; active &= ~0b0100; }
+            if ((active & 0b1000) != 0 && zrSq3 + ziSq3 > radiusSquared) { n3 = iterations + 1; active &= ~0b1000; }
+            zi0 = 2 * zr0 * zi0 + ci0; zr0 = zrSq0 - ziSq0 + cr0;
+            zi1 = 2 * zr1 * zi1 + ci1; zr1 = zrSq1 - ziSq1 + cr1;
+            zi2 = 2 * zr2 * zi2 + ci2; zr2 = zrSq2 - ziSq2 + cr2;
+            zi3 = 2 * zr3 * zi3 + ci3; zr3 = zrSq3 - ziSq3 + cr3;
+            if (interiorTests) {
+                // periodic lanes keep n = maxIterations and are dropped from orbits
+                if ((active & 0b0001) != 0 && zr0 == savedZr0 && zi0 == savedZi0) { active &= ~0b0001; resumed &= ~0b0001; }
+                if ((active & 0b0010) != 0 && zr1 == savedZr1 && zi1 == savedZi1) { active &= ~0b0010; resumed &= ~0b0010; }
+                if ((active & 0b0100) != 0 && zr2 == savedZr2 && zi2 == savedZi2) { active &= ~0b0100; resumed &= ~0b0100; }
+                if ((active & 0b1000) != 0 && zr3 == savedZr3 && zi3 == savedZi3) { active &= ~0b1000; resumed &= ~0b1000; }
+                if (++sinceSaved == savedAfter) {
+                    savedZr0 = zr0; savedZi0 = zi0;
+                    savedZr1 = zr1; savedZi1 = zi1;
+                    savedZr2 = zr2; savedZi2 = zi2;
+                    savedZr3 = zr3; savedZi3 = zi3;
+                    sinceSaved = 0;
+                    savedAfter <<= 1;
+                }
+            }
+        }
+        data[p0] = n0;
+        data[p1] = n1;
+        data[p2] = n2;
+        data[p3] = n3;
+        recordResumedLane(orbits, index, active & 0b0001, resumed & 0b0001, n0, maxIterations, zr0, zi0);
+        recordResumedLane(orbits, index + 1, active & 0b0010, resumed & 0b0010, n1, maxIterations, zr1, zi1);
+        recordResumedLane(orbits, index + 2, active & 0b0100, resumed & 0b0100, n2, maxIterations, zr2, zi2);
+        recordResumedLane(orbits, index + 3, active & 0b1000, resumed & 0b1000, n3, maxIterations, zr3, zi3);
+    }
+
+    private static void recordResumedLane(OrbitState orbits, int index, int active, int resumed, int iterations, int maxIterations, double zr, double zi){
+        if (active != 0)
+            orbits.set(index, zr, zi);
+        else if (resumed != 0)
+            recordEscape(orbits, index, iterations, maxIterations);
+        else
+            orbits.remove(index);
+    }
+
+    /**
+     * Continues one recorded pixel from Z after previousMaxIterations iterations.
+     * @return the iterations of the pixel at maxIterations
+     */
+    private static int resumePoint(OrbitState orbits, int index, double cReal, double cImaginary, int previousMaxIterations, int maxIterations, double radiusSquared){
+        double zr = orbits.getReal(index);
+        double zi = orbits.getImaginary(index);
+        for (int iterations = previousMaxIterations; iterations < maxIterations; iterations++) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            if ((zr2 + zi2) > radiusSquared)
+                return recordEscape(orbits, index, iterations + 1, maxIterations);
+            zi = 2 * zr * zi + cImaginary;
+            zr = zr2 - zi2 + cReal;
+        }
+        orbits.set(index, zr, zi);
+        return maxIterations;
+    }
+
+    /**
+     * resumePoint with the periodicity detection of calcMandelOptimised, which restarts from the recorded Z.
+     */
+    private static int resumePointOptimised(OrbitState orbits, int index, double cReal, double cImaginary, int previousMaxIterations, int maxIterations, double radiusSquared){
+        double zr = orbits.getReal(index);
+        double zi = orbits.getImaginary(index);
+        double savedZr = zr;
+        double savedZi = zi;
+        int savedAfter = 1;
+        int sinceSaved = 0;
+        for (int iterations = previousMaxIterations; iterations < maxIterations; iterations++) {
+            double zr2 = zr * zr;
+            double zi2 = zi * zi;
+            if ((zr2 + zi2) > radiusSquared)
+                return recordEscape(orbits, index, iterations + 1, maxIterations);
+            zi = 2 * zr * zi + cImaginary;
+            zr = zr2 - zi2 + cReal;
+            if (zr == savedZr && zi == savedZi) {
+                orbits.remove(index);
+                return maxIterations;
+            }
+            if (++sinceSaved == savedAfter) {
+                savedZr = zr;
+                savedZi = zi;
+                sinceSaved = 0;
+                savedAfter <<= 1;
+            }
+        }
+        orbits.set(index, zr, zi);
+        return maxIterations;
+    }
+
+    /**
+     * Drops an escaped pixel from orbits, unless it escaped on the last iteration and so still has to be told apart from the interior.
+     */
+    private static int recordEscape(OrbitState orbits, int index, int iterations, int maxIterations){
+        if (iterations == maxIterations)
+            orbits.set(index, Double.NaN, Double.NaN);
+        else
+            orbits.remove(index);
+        return iterations;
+    }
+
+    /**
+     * Lowers the maxIterations of a rendered frame without rendering it again: a pixel escapes at the same iteration whatever the limit, so
+     * every value above maxIterations simply becomes maxIterations.
+     */
+    public void clampMandelbrotSet(IterationBuffer mandelbrotData, int maxIterations){
+        int[] data = mandelbrotData.getData();
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] > maxIterations)
+                data[i] = maxIterations;
+        }
+    }
+
+    private void calcProgressive(IterationBuffer mandelbrotData, FrameParameters frame, Runnable passListener){
+        for (int step = PROGRESSIVE_INITIAL_STEP; step >= 1; step /= 2) {
+            int coarseStep = step == PROGRESSIVE_INITIAL_STEP ? 0 : step * 2;
+            calcPass(mandelbrotData, step, coarseStep, frame);
+            if (passListener != null)
+                passListener.run();
         }
-        return mandelbrotData;
     }
-}
 
+    /**
+     * Runs one pass over the whole buffer, in parallel or serially depending on the settings.
+     * The serial path works through bands of MandelbrotTileTask.TILE_SIZE rows, so it polls cancelled as often as the parallel one.
+     */
+    private void calcPass(IterationBuffer mandelbrotData, int step, int coarseStep, FrameParameters frame){
+        int width = mandelbrotData.getWidth();
+        int height = mandelbrotData.getHeight();
+        if (parallelRendering && parallelism > 1)
+            getRenderPool().invoke(new MandelbrotTileTask(this, mandelbrotData, 0, 0, width, height, step, coarseStep, frame));
+        else {
+            for (int minY = 0; minY < height && !frame.isCancelled(); minY += MandelbrotTileTask.TILE_SIZE) {
+                int maxY = Math.min(height, minY + MandelbrotTileTask.TILE_SIZE);
+                if (step == 1 && coarseStep == 0)
+                    calcTile(mandelbrotData, 0, minY, width, maxY, frame);
+                else
+                    calcTileSamples(mandelbrotData, 0, minY, width, maxY, step, coarseStep, frame);
+            }
+        }
+        if (frame.isCancelled())
+            throw new CancellationException("Mandelbrot render cancelled");
+    }
+
+    /**
+     * Method to fill one rectangular tile [minX, maxX) x [minY, maxY) of the mandelbrotData buffer.
+     * The serial path calls it once per band of rows, the parallel path once per tile.
+     * The constant C for each pixel is always derived from the pixel position of the full frame, so the tiling does not change the result.
+     */
+    void calcTile(IterationBuffer mandelbrotData, int minX, int minY, int maxX, int maxY, FrameParameters frame){
+        int[] data = mandelbrotData.getData();
+        int width = mandelbrotData.getWidth();
+        OrbitState orbits = frame.orbits == null || frame.doubleDouble ? null : new OrbitState();
+        for (int y = minY; y < maxY; y++) {
+            double cImaginary = frame.imaginary(y);
+            int rowOffset = y * width;
+            int x = minX;
+            if (frame.doubleDouble) {
+                for (; x < maxX; x++)
+                    data[rowOffset + x] = calcFramePoint(x, y, frame);
+            }
+            if (stripKernel) {
+                for (; x + STRIP_WIDTH <= maxX; x += STRIP_WIDTH)
+                    calcMandelStrip(data, rowOffset, x, cImaginary, frame, orbits);
+            }
+            for (; x < maxX; x++)
+                data[rowOffset + x] = calcPoint(frame.real(x), cImaginary, frame.maxIterations, frame.radiusSquared, orbits, rowOffset + x);
+        }
+        if (orbits != null)
+            frame.orbits.addAll(orbits);
+    }
+
+    /**
+     * Method to evaluate one progressive pass within a tile. Only pixels whose coordinates are multiples of step are evaluated, skipping those
+     * that are also multiples of coarseStep (already evaluated by the previous pass; 0 for the first pass). Each evaluated pixel fills the
+     * step x step block to its lower right, which partitions the frame, so neighbouring tiles never write the same pixel.
+     */
+    void calcTileSamples(IterationBuffer mandelbrotData, int minX, int minY, int maxX, int maxY, int step, int coarseStep, FrameParameters frame){
+        int[] data = mandelbrotData.getData();
+        int width = mandelbrotData.getWidth();
+        int height = mandelbrotData.getHeight();
+        int firstY = (minY + step - 1) / step * step;
+        int firstX = (minX + step - 1) / step * step;
+        OrbitState orbits = frame.orbits == null || frame.doubleDouble ? null : new OrbitState();
+        for (int y = firstY; y < maxY; y += step) {
+            boolean coarseRow = coarseStep != 0 && y % coarseStep == 0;
+            int blockMaxY = Math.min(height, y + step);
+            for (int x = firstX; x < maxX; x += step) {
+                if (coarseRow && x % coarseStep == 0)
+                    continue;
+                int iterations = calcFramePoint(x, y, frame, orbits, y * width + x);
+                int blockMaxX = Math.min(width, x + step);
+                for (int blockY = y; blockY < blockMaxY; blockY++) {
+                    int rowOffset = blockY * width;
+                    for (int blockX = x; blockX < blockMaxX; blockX++)
+                        data[rowOffset + blockX] = iterations;
+                }
+            }
+        }
+        if (orbits != null)
+            frame.orbits.addAll(orbits);
+    }
+
+    /**
+     * The pool is created lazily so that a calculator used only in serial mode never starts any threads.
+     */
+    private synchronized ForkJoinPool getRenderPool() {
+        if (renderPool == null)
+            renderPool = new ForkJoinPool(parallelism);
+        return renderPool;
+    }
+
+    public boolean isOptimisedKernel() {
+        return optimisedKernel;
+    }
+
+    /**
+     * @param optimisedKernel true to use the kernel with cardioid/bulb rejection and periodicity detection, false for the original kernel.
+     *        Both produce the same results; the switch exists so that the two can be compared.
+     */
+    public void setOptimisedKernel(boolean optimisedKernel) {
+        this.optimisedKernel = optimisedKernel;
+    }
+
+    public boolean isStripKernel() {
+        return stripKernel;
+    }
+
+    /**
+     * @param stripKernel true to evaluate full-resolution tiles STRIP_WIDTH pixels at a time with calcMandelStrip, false to evaluate them one by one.
+     *        The results are the same; the remainder of a row narrower than a strip always uses the single point kernel.
+     */
+    public void setStripKernel(boolean stripKernel) {
+        this.stripKernel = stripKernel;
+    }
+
+    public boolean isSubdivisionRendering() {
+        return subdivisionRendering;
+    }
+
+    /**
+     * @param subdivisionRendering true to render full frames with the Mariani-Silver rectangle subdivision, false for the brute force loop.
+     *        Progressive renders always use the brute force passes.
+     */
+    public void setSubdivisionRendering(boolean subdivisionRendering) {
+        this.subdivisionRendering = subdivisionRendering;
+    }
+
+    /**
+     * @return the number of pixels the last subdivision render filled without evaluating them, i.e. the kernel calls saved compared to brute force.
+     */
+    public long getLastKernelCallsSaved() {
+        return lastKernelCallsSaved;
+    }
+
+    public boolean isParallelRendering() {
+        return parallelRendering;
+    }
+
+    /**
+     * @param parallelRendering true to render tiles on the ForkJoinPool, false to use the single-threaded loop.
+     */
+    public void setParallelRendering(boolean parallelRendering) {
+        this.parallelRendering = parallelRendering;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of worker threads used for parallel rendering. A value of 1 renders serially.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        if (parallelism != this.parallelism && renderPool != null) {
+            renderPool.shutdown();
+            renderPool = null;
+        }
+        this.parallelism = parallelism;
+    }
+}
@@ -1,13 +1,14 @@
 package model;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.Observable;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFrame;
@@ -15,49 +16,68 @@ import javax.swing.JPanel;
 import view.ImagePanel;
 
 public class MandelbrotModel extends Observable implements IMandelbrotModel {
-    //current image - what we see
-    private BufferedImage currentImage;
-    private int[][] currentArray;
+    //current image - what we see. Written by the render thread, read by the view.
+    private volatile BufferedImage currentImage;
+    //Null while the iteration values of the current frame have not been
+    //calculated, e.g. after loading an image. Read it through getCurrentArray().
+    private IterationBuffer currentArray;
+    //False while the current frame is being rendered or if its render was cancelled.
+    //An incomplete frame is never stored in the undo/redo history.
+    private boolean currentFrameComplete;
+    //The last Z of the pixels of the current frame still iterating at
+    //currentMaxIterations, or null if it was not recorded. Lets a change of
+    //maxIterations alone continue the frame instead of rendering it again.
+    private OrbitState currentOrbits;
 
-    private int currentMaxIterations;
+    private volatile int currentMaxIterations;
     private int currentWidthInPixels;
     private int currentHeightInPixels;
-    private double currentMinReal;
-    private double currentMaxReal;
-    private double currentMinImaginary;
-    private double currentMaxImaginary;
-    private double currentRatio;
+    //The viewport is kept at arbitrary precision, so zooming never runs out of digits
+    private BigDecimal currentMinReal;
+    private BigDecimal currentMaxReal;
+    private BigDecimal currentMinImaginary;
+    private BigDecimal currentMaxImaginary;
+    private volatile double currentRatio;
     private int currentColourMappingValue;
+    //When set, generate() notifies the observers after every refinement pass
+    private boolean progressiveRendering = true;
     private MandelbrotCalculator mandelbrotCalculator;
-    
-    //Stack for undo
-    private Stack<BufferedImage> pastImages;
-    private Stack<int[][]> pastArrays;
-    private Stack<Double> pastMinReal;
-    private Stack<Double> pastMaxReal;
-    private Stack<Double> pastMinImaginary;
-    private Stack<Double> pastMaxImaginary;
-    private Stack<Integer> pastMaxIterations;
-    private Stack<Double> pastRatios;
-    
-    //Stack for redo
-    private Stack<BufferedImage> undoneImages;
-    private Stack<int[][]> undoneArrays;
-    private Stack<Double> undoneMinReal;
-    private Stack<Double> undoneMaxReal;
-    private Stack<Double> undoneMinImaginary;
-    private Stack<Double> undoneMaxImaginary;
-    private Stack<Integer> undoneMaxIterations;
-    private Stack<Double> undoneRatios;
+    //Calculates the frames too deep for the double-double arithmetic of the mandelbrotCalculator
+    private PerturbationCalculator perturbationCalculator;
+    //When set, frames are served from cached tiles and only the missing tiles are calculated.
+    //Only changed on the render thread.
+    private volatile TileCache tileCache;
+    //Recycles iteration buffers of the same resolution between frames
+    private IterationBufferPool iterationBufferPool;
+    //Colours iteration buffers into images through palette lookup tables
+    private ImagePainter imagePainter;
+    //Recolours the current image in the background and caches recent palettes
+    private RecolourService recolourService;
+    //Runs every state change on one background thread, away from the Swing event thread
+    private RenderJobScheduler renderJobs;
+    //The pan not applied yet and the job that will apply it. Pans arriving
+    //while a pan job is queued are added to it, so a fast drag never queues
+    //up more than one job. Guarded by pendingPanLock.
+    private final Object pendingPanLock = new Object();
+    private int pendingPanX;
+    private int pendingPanY;
+    private Future<?> pendingPan;
+    
+    //Undo and redo history, keeping the pixel data of recent frames within a memory budget
+    private RenderHistory history;
     
     //Colour Mapping
     Random randomColourMapping;
     
-    //This array stores the Buffered Images for creating the animation feeling
-    BufferedImage[] multipleImages;
-    //Images counter to facilitate the multiple images array processing 
-    //- index showing where to put the next image.
-    int multipleImagesCounter;
+    //This array stores the Buffered Images for creating the animation feeling.
+    //It is only published once its frames are drawn, and replaced, never
+    //painted again, when they are refined.
+    volatile BufferedImage[] multipleImages = new BufferedImage[0];
+    //Draws the animation frames from the rendered target frame
+    private ZoomAnimator zoomAnimator;
+    //When set, the animation frames are drawn again after every refinement
+    //pass of a progressive render, so frames not yet shown get sharper
+    private boolean refiningZoomAnimation = true;
     
     protected static final double INITIAL_MIN_REAL = -2.1;
     protected static final double INITIAL_MAX_REAL = 2.1;
@@ -70,104 +90,396 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
     protected static final double INITIAL_RATIO = 1.0;
     protected static final int MAX_COLOUR_MAPPING_VALUE = 256;
     protected static final int DEFAULT_COLOUR_MAPPING_VALUE = -1;
+    //The history may keep the pixel data of its frames in up to this share of the heap
+    protected static final int HISTORY_HEAP_FRACTION = 4;
             
     /**
-     * Constructor - Initialise the stacks, create a MandelbrotCalculator object
+     * Constructor - Initialise the history, create a MandelbrotCalculator object
      * and load initial state.
+     * 
+     * The initial state is calculated on the calling thread, so the view has an
+     * image as soon as the model is constructed. All later changes are queued on
+     * the render thread and the observers are notified when they complete.
      */
     public MandelbrotModel() {
-        initializeStacks();
         mandelbrotCalculator = new MandelbrotCalculator();
+        perturbationCalculator = new PerturbationCalculator();
+        iterationBufferPool = new IterationBufferPool();
+        history = new RenderHistory(Runtime.getRuntime().maxMemory() / HISTORY_HEAP_FRACTION,
+                iterationBufferPool);
+        imagePainter = new ImagePainter();
+        zoomAnimator = new ZoomAnimator();
+        recolourService = new RecolourService(imagePainter);
+        renderJobs = new RenderJobScheduler();
         loadInitialState();
     }
     
     @Override
     public void reset() {
-        loadInitialState();
-        update();
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            loadInitialState();
+            update();
+        });
     }
     
     public void loadInitialState() {
-        currentMinReal = INITIAL_MIN_REAL;
-        currentMaxReal = INITIAL_MAX_REAL;
-        currentMinImaginary = INITIAL_MIN_IMAGINARY;
-        currentMaxImaginary = INITIAL_MAX_IMAGINARY;
+        currentMinReal = BigDecimal.valueOf(INITIAL_MIN_REAL);
+        currentMaxReal = BigDecimal.valueOf(INITIAL_MAX_REAL);
+        currentMinImaginary = BigDecimal.valueOf(INITIAL_MIN_IMAGINARY);
+        currentMaxImaginary = BigDecimal.valueOf(INITIAL_MAX_IMAGINARY);
         currentMaxIterations = INITIAL_MAX_ITERATIONS;
         currentWidthInPixels = DEFAULT_WIDTH_IN_PIXELS;
         currentHeightInPixels = DEFAULT_HEIGHT_IN_PIXELS;
         currentRatio = INITIAL_RATIO;
         currentColourMappingValue = DEFAULT_COLOUR_MAPPING_VALUE;
-        currentArray = mandelbrotCalculator.calcMandelbrotSet(currentWidthInPixels, 
-                currentHeightInPixels, currentMinReal, currentMaxReal,
-                currentMinImaginary, currentMaxImaginary, currentMaxIterations,
-                DEFAULT_RADIUS_SQUARED);
+        //The replaced frame is not kept in the history, so its buffer can be reused
+        iterationBufferPool.release(currentArray);
+        currentArray = calculateCurrentArray(true);
+        currentFrameComplete = true;
         randomColourMapping = new Random();
         paintColor();
     }
 
     @Override
     public void undo() {
-        if (!pastImages.empty()) {
-            pushToUndoneStacks();
-            popFromPastStacks();
-            update();
-        }
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            if (history.canUndo()) {
+                restoreSnapshot(history.undo(leaveCurrentFrame()));
+                update();
+            }
+        });
     }
 
     @Override
     public void redo() {
-        if (!undoneImages.empty()) {
-            pushToPastStacks();
-            popFromUndoneStacks();
-            update();
-        }
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            if (history.canRedo()) {
+                restoreSnapshot(history.redo(leaveCurrentFrame()));
+                update();
+            }
+        });
     }
 
     @Override
     public void changeColourMapping() {
-        currentColourMappingValue = randomColourMapping.nextInt(MAX_COLOUR_MAPPING_VALUE);
-        paintColor(currentColourMappingValue);
-        update();
+        renderJobs.submit(() -> {
+            currentColourMappingValue = randomColourMapping.nextInt(MAX_COLOUR_MAPPING_VALUE);
+            //Recolour from the resident iteration values, showing a new image
+            //after every slice, like the passes of a render. The current image
+            //may be saved or kept in the history, so it is never repainted.
+            recolourService.recolour(getCurrentArray(), recolourService.getPalette(
+                    currentColourMappingValue, currentMaxIterations), currentImage, image -> {
+                        currentImage = image;
+                        update();
+                    });
+        });
     }
 
+    /**
+     * Queues the render of a new frame and returns immediately. A newer call
+     * cancels this render if it has not finished by then.
+     * @return a future completing when the frame has been rendered or cancelled
+     */
     @Override
-    public void generate(int minRealPixel, int maxRealPixel, int minImaginaryPixel,
+    public Future<?> generate(int minRealPixel, int maxRealPixel, int minImaginaryPixel,
             int maxImaginaryPixel, int maxIterations, boolean changedScale, double sentRatio) {
-        pushToPastStacks();
+        return renderJobs.submitReplacing(cancelled -> generate(minRealPixel, maxRealPixel,
+                minImaginaryPixel, maxImaginaryPixel, maxIterations, changedScale,
+                sentRatio, cancelled));
+    }
+
+    private void generate(int minRealPixel, int maxRealPixel, int minImaginaryPixel,
+            int maxImaginaryPixel, int maxIterations, boolean changedScale, double sentRatio,
+            BooleanSupplier cancelled) {
+        recolourService.finish();
+        IterationBuffer previousArray = currentArray;
+        OrbitState previousOrbits = currentOrbits;
+        int previousMaxIterations = currentMaxIterations;
+        RenderHistory.Snapshot current = leaveCurrentFrame();
+        if (current != null)
+            history.record(current);
+        currentFrameComplete = false;
+        currentOrbits = null;
         currentMaxIterations = maxIterations;
         currentRatio = sentRatio;
         if (changedScale) {
-            double prevMinReal = currentMinReal;
-            double prevMaxReal = currentMaxReal;
-            double prevMinImaginary = currentMinImaginary;
-            double prevMaxImaginary = currentMaxImaginary;
-            currentMinReal = prevMinReal + ((double)minRealPixel / 
-                    (double)currentWidthInPixels) * (prevMaxReal - prevMinReal);
-            currentMaxReal = prevMinReal + ((double)maxRealPixel /
-                    (double)currentWidthInPixels) * (prevMaxReal - prevMinReal);
-            currentMinImaginary = prevMinImaginary + ((double)minImaginaryPixel 
-                    / (double)currentHeightInPixels) * (prevMaxImaginary - prevMinImaginary);
-            currentMaxImaginary = prevMinImaginary + ((double)maxImaginaryPixel
-                    / (double)currentHeightInPixels) * (prevMaxImaginary - prevMinImaginary);
-            //zoomAnimated creates an array of Buffered Images to facilitate
-            //View classes to create the animation feeling.
-            zoomAnimated(minRealPixel, maxRealPixel, minImaginaryPixel, maxImaginaryPixel);
+            BigDecimal prevMinReal = currentMinReal;
+            BigDecimal prevMinImaginary = currentMinImaginary;
+            BigDecimal realSpan = currentMaxReal.subtract(currentMinReal);
+            BigDecimal imaginarySpan = currentMaxImaginary.subtract(currentMinImaginary);
+            //Enough digits for any selection of at least one pixel
+            MathContext mathContext = PerturbationCalculator.mathContextFor(
+                    realSpan.min(imaginarySpan), Math.max(currentWidthInPixels, currentHeightInPixels));
+            currentMinReal = pixelToCoordinate(prevMinReal, realSpan, minRealPixel,
+                    currentWidthInPixels, mathContext);
+            currentMaxReal = pixelToCoordinate(prevMinReal, realSpan, maxRealPixel,
+                    currentWidthInPixels, mathContext);
+            currentMinImaginary = pixelToCoordinate(prevMinImaginary, imaginarySpan,
+                    minImaginaryPixel, currentHeightInPixels, mathContext);
+            currentMaxImaginary = pixelToCoordinate(prevMinImaginary, imaginarySpan,
+                    maxImaginaryPixel, currentHeightInPixels, mathContext);
+            //The animation frames are drawn from the new frame once it has
+            //been rendered, and published then.
+            zoomAnimator.begin(currentImage, minRealPixel, maxRealPixel,
+                    minImaginaryPixel, maxImaginaryPixel);
+        }
+        //Only maxIterations changed: the previous frame holds every value
+        //the new one needs, except those of the pixels that were still iterating
+        boolean reusesPreviousFrame = !changedScale && current != null
+                && previousArray != null
+                && previousArray.hasSize(currentWidthInPixels, currentHeightInPixels)
+                && (maxIterations < previousMaxIterations || maxIterations > previousMaxIterations
+                        && previousOrbits != null
+                        && previousOrbits.getMaxIterations() == previousMaxIterations);
+        //The previous array is in the history now, so render into a new one
+        if (reusesPreviousFrame) {
+            changeMaxIterations(previousArray, previousOrbits, previousMaxIterations, cancelled);
+        }
+        else if (progressiveRendering) {
+            generateProgressively(changedScale, cancelled);
+        }
+        else {
+            currentArray = iterationBufferPool.acquire(currentWidthInPixels,
+                    currentHeightInPixels);
+            currentOrbits = calcCurrentViewport(currentArray, true, cancelled);
+            if (currentColourMappingValue == DEFAULT_COLOUR_MAPPING_VALUE)
+                paintColor();
+            else
+                paintColor(currentColourMappingValue);
+            if (changedScale) {
+                zoomAnimator.draw(currentImage);
+                multipleImages = zoomAnimator.getFrames();
+            }
+        }
+        currentFrameComplete = true;
+        if (!progressiveRendering || reusesPreviousFrame)
+            update();
+    }
+    
+    /**
+     * Derives the current frame from the previous frame of the same viewport
+     * at another maxIterations. A lower maxIterations only clamps the values.
+     * A higher one continues the pixels recorded in previousOrbits where they
+     * stopped, so raising maxIterations on a mostly exterior view costs only
+     * the work on the pixels that had not escaped.
+     */
+    private void changeMaxIterations(IterationBuffer previousArray, OrbitState previousOrbits,
+            int previousMaxIterations, BooleanSupplier cancelled) {
+        currentArray = iterationBufferPool.acquire(currentWidthInPixels, currentHeightInPixels);
+        System.arraycopy(previousArray.getData(), 0, currentArray.getData(), 0,
+                previousArray.getData().length);
+        if (currentMaxIterations < previousMaxIterations)
+            mandelbrotCalculator.clampMandelbrotSet(currentArray, currentMaxIterations);
+        else {
+            mandelbrotCalculator.resumeMandelbrotSet(currentArray, currentMinReal, currentMaxReal,
+                    currentMinImaginary, currentMaxImaginary, currentMaxIterations,
+                    DEFAULT_RADIUS_SQUARED, previousOrbits, cancelled);
+            currentOrbits = previousOrbits;
+            Logger.getLogger(MandelbrotModel.class.getName()).log(Level.FINE,
+                    "Raised maxIterations from {0} to {1}, {2} pixels still iterating",
+                    new Object[] {previousMaxIterations, currentMaxIterations,
+                        currentOrbits.getCount()});
         }
-        currentArray = new int[currentHeightInPixels][currentWidthInPixels];
-        currentArray = mandelbrotCalculator.calcMandelbrotSet(currentWidthInPixels,
-                currentHeightInPixels, currentMinReal, currentMaxReal, 
-                currentMinImaginary, currentMaxImaginary, currentMaxIterations,
-                DEFAULT_RADIUS_SQUARED);
         if (currentColourMappingValue == DEFAULT_COLOUR_MAPPING_VALUE)
             paintColor();
         else
             paintColor(currentColourMappingValue);
-        update();
+    }
+    
+    /**
+     * Renders the current viewport from a 1/16 resolution preview up to the
+     * full resolution. The image is repainted and the observers are notified
+     * after every pass, so the view shows a preview long before the full
+     * frame is finished. Each pass is painted into a new image, so the view
+     * never shows an image that is still being painted.
+     * 
+     * After a zoom the animation frames are drawn from the first pass, before
+     * the view is notified and starts playing them. If refiningZoomAnimation
+     * is set, the later passes draw sharper frames into new images, which the
+     * view picks up for the frames it has not shown yet.
+     * 
+     * The deepest frames are calculated by perturbation, and frames served
+     * from the tile cache are assembled from tiles. Neither has preview
+     * passes, so those frames are painted once when complete.
+     */
+    private void generateProgressively(boolean changedScale, BooleanSupplier cancelled) {
+        boolean[] firstPass = {true};
+        currentArray = iterationBufferPool.acquire(currentWidthInPixels,
+                currentHeightInPixels);
+        Runnable passListener = () -> {
+            BufferedImage passImage = new BufferedImage(currentWidthInPixels,
+                    currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
+            imagePainter.paint(currentArray, recolourService.getPalette(
+                    currentColourMappingValue, currentMaxIterations),
+                    passImage, 0, 0);
+            currentImage = passImage;
+            if (changedScale && firstPass[0]) {
+                zoomAnimator.draw(passImage);
+                multipleImages = zoomAnimator.getFrames();
+            }
+            else if (changedScale && refiningZoomAnimation)
+                multipleImages = zoomAnimator.refine(passImage);
+            firstPass[0] = false;
+            if (!cancelled.getAsBoolean())
+                update();
+        };
+        if (isDeepZoom() || isServedFromTileCache()) {
+            calcCurrentViewport(currentArray, false, cancelled);
+            passListener.run();
+        }
+        else {
+            OrbitState orbits = new OrbitState();
+            mandelbrotCalculator.calcMandelbrotSetProgressive(currentArray, currentMinReal,
+                    currentMaxReal, currentMinImaginary, currentMaxImaginary,
+                    currentMaxIterations, DEFAULT_RADIUS_SQUARED, orbits, passListener, cancelled);
+            currentOrbits = orbits.isComplete() ? orbits : null;
+        }
+    }
+    
+    /**
+     * Queues a pan of the view and returns immediately. Pans are applied in
+     * full and in order, but all the pans submitted before the queued job
+     * starts are applied together. A newer pan or render cancels the render
+     * of a pan that has to calculate the frame in full, see pan(int, int,
+     * BooleanSupplier).
+     * @return a future completing when the pan has been applied or its render
+     * was cancelled
+     */
+    @Override
+    public Future<?> pan(int deltaXPixels, int deltaYPixels) {
+        synchronized (pendingPanLock) {
+            pendingPanX += deltaXPixels;
+            pendingPanY += deltaYPixels;
+            if (pendingPan == null)
+                pendingPan = renderJobs.submitReplaceable(this::applyPendingPan);
+            return pendingPan;
+        }
+    }
+    
+    private void applyPendingPan(BooleanSupplier cancelled) {
+        int deltaX;
+        int deltaY;
+        synchronized (pendingPanLock) {
+            deltaX = pendingPanX;
+            deltaY = pendingPanY;
+            pendingPanX = 0;
+            pendingPanY = 0;
+            pendingPan = null;
+        }
+        if (deltaX != 0 || deltaY != 0) {
+            recolourService.finish();
+            pan(deltaX, deltaY, cancelled);
+            update();
+        }
+    }
+    
+    /**
+     * Moves the viewport by whole pixels, so that the content moves deltaX
+     * pixels right and deltaY pixels down. The iteration values are shifted in
+     * place and the image is shifted into a new one, and only the strips the
+     * pan exposes are calculated, by the parallel renderer; a pan of a few
+     * pixels costs a few rows and columns instead of a frame. The new image
+     * is published once complete, like the passes of a render, so the view
+     * and a save in progress keep the previous image intact.
+     * 
+     * Frames the double renderer cannot calculate by region, i.e. deep frames
+     * and frames from the tile cache, frames without iteration values and pans
+     * beyond the frame are calculated in full. That render is cancelled by a
+     * newer pan or render, which then finds an incomplete frame and calculates
+     * it anew. Pans are not recorded in the history: undo returns to the frame
+     * before them, and redo to the panned frame.
+     */
+    private void pan(int deltaX, int deltaY, BooleanSupplier cancelled) {
+        BigDecimal realSpan = currentMaxReal.subtract(currentMinReal);
+        BigDecimal imaginarySpan = currentMaxImaginary.subtract(currentMinImaginary);
+        MathContext mathContext = PerturbationCalculator.mathContextFor(
+                realSpan.min(imaginarySpan), Math.max(currentWidthInPixels, currentHeightInPixels));
+        //The content moves right, so the viewport moves left, and likewise down
+        BigDecimal realShift = pixelToCoordinate(BigDecimal.ZERO, realSpan, -deltaX,
+                currentWidthInPixels, mathContext);
+        BigDecimal imaginaryShift = pixelToCoordinate(BigDecimal.ZERO, imaginarySpan, -deltaY,
+                currentHeightInPixels, mathContext);
+        currentMinReal = currentMinReal.add(realShift);
+        currentMaxReal = currentMaxReal.add(realShift);
+        currentMinImaginary = currentMinImaginary.add(imaginaryShift);
+        currentMaxImaginary = currentMaxImaginary.add(imaginaryShift);
+        currentOrbits = null;
+        double minReal = currentMinReal.doubleValue();
+        double maxReal = currentMaxReal.doubleValue();
+        double minImaginary = currentMinImaginary.doubleValue();
+        double maxImaginary = currentMaxImaginary.doubleValue();
+        IterationBuffer array = currentArray;
+        boolean shiftable = currentFrameComplete && array != null
+                && array.hasSize(currentWidthInPixels, currentHeightInPixels)
+                && currentImage.getWidth() == currentWidthInPixels
+                && currentImage.getHeight() == currentHeightInPixels
+                && Math.abs(deltaX) < currentWidthInPixels && Math.abs(deltaY) < currentHeightInPixels
+                && !isServedFromTileCache() && !MandelbrotCalculator.needsDoubleDouble(minReal, maxReal,
+                        minImaginary, maxImaginary, (maxReal - minReal) / currentWidthInPixels,
+                        (maxImaginary - minImaginary) / currentHeightInPixels);
+        if (!shiftable) {
+            currentFrameComplete = false;
+            if (array == null || !array.hasSize(currentWidthInPixels, currentHeightInPixels)) {
+                iterationBufferPool.release(array);
+                array = iterationBufferPool.acquire(currentWidthInPixels, currentHeightInPixels);
+                currentArray = array;
+            }
+            calcCurrentViewport(array, false, cancelled);
+            currentFrameComplete = true;
+            if (currentColourMappingValue == DEFAULT_COLOUR_MAPPING_VALUE)
+                paintColor();
+            else
+                paintColor(currentColourMappingValue);
+            return;
+        }
+        array.shift(deltaX, deltaY);
+        BufferedImage image = new BufferedImage(currentWidthInPixels, currentHeightInPixels,
+                BufferedImage.TYPE_INT_RGB);
+        ImagePainter.shift(ImagePainter.toIntRgb(currentImage), image, deltaX, deltaY);
+        ColourPalette palette = recolourService.getPalette(currentColourMappingValue,
+                currentMaxIterations);
+        //The exposed columns over the full height, then the exposed rows beside them
+        int columns = Math.abs(deltaX);
+        int rows = Math.abs(deltaY);
+        int columnsX = deltaX > 0 ? 0 : currentWidthInPixels - columns;
+        int rowsX = deltaX > 0 ? columns : 0;
+        int rowsY = deltaY > 0 ? 0 : currentHeightInPixels - rows;
+        calcExposedStrip(array, image, palette, columnsX, 0, columns, currentHeightInPixels,
+                minReal, maxReal, minImaginary, maxImaginary);
+        calcExposedStrip(array, image, palette, rowsX, rowsY, currentWidthInPixels - columns, rows,
+                minReal, maxReal, minImaginary, maxImaginary);
+        currentImage = image;
+    }
+    
+    /**
+     * Calculates the width x height pixels at (x, y) of the current frame and
+     * writes them into the array and the image.
+     */
+    private void calcExposedStrip(IterationBuffer array, BufferedImage image, ColourPalette palette,
+            int x, int y, int width, int height, double minReal, double maxReal,
+            double minImaginary, double maxImaginary) {
+        if (width == 0 || height == 0)
+            return;
+        //Strip sizes change with every pan, so they are not worth pooling
+        IterationBuffer strip = new IterationBuffer(width, height);
+        mandelbrotCalculator.calcMandelbrotRegion(strip, x, y, currentWidthInPixels,
+                currentHeightInPixels, minReal, maxReal, minImaginary, maxImaginary,
+                currentMaxIterations, DEFAULT_RADIUS_SQUARED, () -> false);
+        for (int row = 0; row < height; row++)
+            System.arraycopy(strip.getData(), row * width, array.getData(),
+                    (y + row) * currentWidthInPixels + x, width);
+        imagePainter.paint(strip, palette, image, x, y);
     }
     
     /**
      *  This method is utilised by the animated zoom function.
      * The parameters indicate the pixels of the rectangle the user has defined.
+     * The current viewport is rendered once at full resolution and every
+     * frame is drawn from it by the ZoomAnimator, projected above the current
+     * image. generate() does the same with the frame it renders anyway.
      * @param minRealPixel
      * @param maxRealPixel
      * @param minImaginaryPixel
@@ -175,49 +487,144 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
      */
     public void zoomAnimated(int minRealPixel, int maxRealPixel, int minImaginaryPixel,
             int maxImaginaryPixel) {
-        int tempHeightInPixels = maxImaginaryPixel - minImaginaryPixel;
-        int tempWidthInPixels = maxRealPixel - minRealPixel;
-        //defines the number of images we will send 
-        //the total width minus the width selected by the user
-        //every image I send is 80 pixels bigger than the previous one.
-         // For small selected rectangles more repetitions , denominator is always 80
-        int numberOfRepetitions = (currentWidthInPixels - tempWidthInPixels) / 
-                (currentWidthInPixels / 10);
-       
-        //The next two variables,define the upper left corner of the expanding
-        //rectangle of the animation feeling. For example, if the selected 
-        //rectangle is on the left side, the expanding rectangle must expand
-        //slowly on its left side and rapidly on its right side.
-        int minRealPixelInterval = minRealPixel / numberOfRepetitions;
-        int minImaginaryPixelInterval = minImaginaryPixel / numberOfRepetitions;
-        //We initialize the array of images to be sent to the view class.
-        //The last one will be calculated in the generate method.
-        multipleImages = new BufferedImage[numberOfRepetitions - 1];
-        multipleImagesCounter = 0;
-        //tempArray is the smaller image that needs to be expanded.
-        int[][] tempArray;
-        //Gradually create the images with increasing size that need to be sent
-        // to the view class.
-        for (int i = 1; i < numberOfRepetitions; i++) {
-            tempWidthInPixels += currentWidthInPixels / 10;
-            tempHeightInPixels += currentHeightInPixels / 10;
-            
-            tempArray = new int[tempHeightInPixels][tempWidthInPixels];
-            tempArray = mandelbrotCalculator.calcMandelbrotSet(tempWidthInPixels,
-                    tempHeightInPixels, currentMinReal, currentMaxReal, 
+        zoomAnimator.begin(currentImage, minRealPixel, maxRealPixel,
+                minImaginaryPixel, maxImaginaryPixel);
+        IterationBuffer targetArray = calculateCurrentArray();
+        BufferedImage targetImage = new BufferedImage(currentWidthInPixels,
+                currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
+        imagePainter.paint(targetArray, recolourService.getPalette(
+                currentColourMappingValue, currentMaxIterations), targetImage, 0, 0);
+        iterationBufferPool.release(targetArray);
+        zoomAnimator.draw(targetImage);
+        multipleImages = zoomAnimator.getFrames();
+    }
+    
+    public boolean isRefiningZoomAnimation() {
+        return refiningZoomAnimation;
+    }
+    
+    public void setRefiningZoomAnimation(boolean refiningZoomAnimation) {
+        this.refiningZoomAnimation = refiningZoomAnimation;
+    }
+    
+    /**
+     * Returns the iteration values of the current frame, calculating them
+     * first if the frame was loaded from a file and has not needed them yet.
+     * @return 
+     */
+    private IterationBuffer getCurrentArray() {
+        if (currentArray == null)
+            currentArray = calculateCurrentArray();
+        return currentArray;
+    }
+    
+    /**
+     * Calculates the current viewport into a buffer taken from the pool.
+     * @return 
+     */
+    private IterationBuffer calculateCurrentArray() {
+        return calculateCurrentArray(false);
+    }
+    
+    /**
+     * @param recordOrbits true if the array becomes the current frame, whose
+     * orbit state is then recorded as currentOrbits
+     */
+    private IterationBuffer calculateCurrentArray(boolean recordOrbits) {
+        IterationBuffer array = iterationBufferPool.acquire(currentWidthInPixels,
+                currentHeightInPixels);
+        OrbitState orbits = calcCurrentViewport(array, recordOrbits, () -> false);
+        if (recordOrbits)
+            currentOrbits = orbits;
+        return array;
+    }
+    
+    /**
+     * Calculates the current viewport at full resolution. The calculator
+     * switches to double-double arithmetic by itself for frames too deep for
+     * double, frames too deep for that are calculated by perturbation.
+     * With a tile cache set, frames it can serve are taken from it instead.
+     * @param array a buffer of the current size
+     * @param recordOrbits true to record the state of the pixels still
+     * iterating at currentMaxIterations
+     * @param cancelled 
+     * @return the recorded state, or null if none was requested or the frame
+     * was not calculated by the double kernels
+     */
+    private OrbitState calcCurrentViewport(IterationBuffer array, boolean recordOrbits,
+            BooleanSupplier cancelled) {
+        if (isServedFromTileCache()) {
+            tileCache.render(array, mandelbrotCalculator, currentMinReal.doubleValue(),
+                    currentMaxReal.doubleValue(), currentMinImaginary.doubleValue(),
+                    currentMaxImaginary.doubleValue(), currentMaxIterations,
+                    DEFAULT_RADIUS_SQUARED, cancelled);
+        }
+        else if (isDeepZoom()) {
+            perturbationCalculator.calcMandelbrotSet(array, currentMinReal, currentMaxReal,
                     currentMinImaginary, currentMaxImaginary, currentMaxIterations,
-                    DEFAULT_RADIUS_SQUARED);
-            if (currentColourMappingValue == DEFAULT_COLOUR_MAPPING_VALUE)
-                paintColorAboveCurrent(tempArray, 
-                        tempWidthInPixels, tempHeightInPixels, minRealPixel - i *
-                                minRealPixelInterval, minImaginaryPixel - i * 
-                                        minImaginaryPixelInterval);
-            else
-                paintColorAboveCurrent(tempArray, tempWidthInPixels,
-                        tempHeightInPixels, minRealPixel - i * minRealPixelInterval, 
-                        minImaginaryPixel - i * minImaginaryPixelInterval, 
-                        currentColourMappingValue);
+                    DEFAULT_RADIUS_SQUARED, cancelled);
+            Logger.getLogger(MandelbrotModel.class.getName()).log(Level.FINE,
+                    "Deep frame: {0} iterations skipped by series approximation, {1} rebases",
+                    new Object[] {perturbationCalculator.getLastSkippedIterations(),
+                        perturbationCalculator.getLastRebaseCount()});
+        }
+        else {
+            OrbitState orbits = recordOrbits ? new OrbitState() : null;
+            mandelbrotCalculator.calcMandelbrotSet(array, currentMinReal, currentMaxReal,
+                    currentMinImaginary, currentMaxImaginary, currentMaxIterations,
+                    DEFAULT_RADIUS_SQUARED, orbits, cancelled);
+            if (orbits != null && orbits.isComplete())
+                return orbits;
         }
+        return null;
+    }
+    
+    /**
+     * @return true if neighbouring pixels of the current viewport cannot be
+     * told apart in double-double precision, so it is rendered by perturbation
+     */
+    public boolean isDeepZoom() {
+        return PerturbationCalculator.isNeeded(currentMinReal, currentMaxReal,
+                currentMinImaginary, currentMaxImaginary, currentWidthInPixels,
+                currentHeightInPixels);
+    }
+    
+    private boolean isServedFromTileCache() {
+        return tileCache != null && tileCache.canServe(currentWidthInPixels, currentHeightInPixels,
+                currentMinReal.doubleValue(), currentMaxReal.doubleValue(),
+                currentMinImaginary.doubleValue(), currentMaxImaginary.doubleValue());
+    }
+    
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+    
+    /**
+     * @param tileCache the cache to serve frames from, so that returning to
+     * an area rendered before only calculates what is new, or null to
+     * calculate every frame directly. Cached frames are resampled from a
+     * fixed grid, so their pixels may be shifted by up to half a pixel.
+     * Takes effect with the next frame rendered.
+     */
+    public void setTileCache(TileCache tileCache) {
+        renderJobs.submit(() -> this.tileCache = tileCache);
+    }
+    
+    /**
+     * @return the coordinate of a pixel border of the previous viewport
+     */
+    private static BigDecimal pixelToCoordinate(BigDecimal min, BigDecimal span, int pixel,
+            int pixels, MathContext mathContext) {
+        return min.add(span.multiply(BigDecimal.valueOf(pixel)).divide(
+                BigDecimal.valueOf(pixels), mathContext), mathContext);
+    }
+    
+    public boolean isProgressiveRendering() {
+        return progressiveRendering;
+    }
+    
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
     }
     
     public void setSize(int width, int height) {
@@ -235,222 +642,120 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
         return currentImage;
     }
     
+    /**
+     * Called by the controller when saving. The snapshot is taken on the
+     * render thread once the jobs queued before have run, so its image,
+     * iteration values and viewport all belong to the same frame. Published
+     * images are never painted again, and the iteration values are copied,
+     * so later changes to the model do not affect the snapshot.
+     * @return a future of the current frame. Its iterations are null if the
+     * frame was loaded without its values or its render was cancelled.
+     */
+    @Override
+    public Future<RenderHistory.Snapshot> snapshotCurrentFrame() {
+        CompletableFuture<RenderHistory.Snapshot> snapshot = new CompletableFuture<RenderHistory.Snapshot>();
+        renderJobs.submit(() -> {
+            try {
+                recolourService.finish();
+                snapshot.complete(new RenderHistory.Snapshot(currentMinReal, currentMaxReal,
+                        currentMinImaginary, currentMaxImaginary, currentMaxIterations, currentRatio,
+                        currentImage, currentFrameComplete && currentArray != null
+                                ? currentArray.copy() : null));
+            } catch (RuntimeException ex) {
+                snapshot.completeExceptionally(ex);
+            }
+        });
+        return snapshot;
+    }
+    
     public void setCurrentImage(BufferedImage loadedImage) {
-        currentImage = loadedImage;
-        update();
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            currentImage = loadedImage;
+            update();
+        });
     }
     
     public void paintBW() {
-        currentImage = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
-        Color colorTrue = new Color(0, 0, 0);
-        Color colorFalse = new Color(255, 255, 255);
-        for (int y = 0; y < currentWidthInPixels; y++)
-        {
-            for (int x = 0; x < currentHeightInPixels; x++)
-            {
-                if (currentArray[x][y] == currentMaxIterations)
-                    currentImage.setRGB(y, x, colorTrue.getRGB());  // https://stackoverflow.com/questions/11951646/setrgb-in-java
-                else
-                {
-                    currentImage.setRGB(y, x, colorFalse.getRGB());
-                }
-            }
-        }
+        BufferedImage image = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
+        imagePainter.paint(getCurrentArray(), ColourPalette.blackAndWhite(currentMaxIterations),
+                image, 0, 0);
+        currentImage = image;
     }
     /**
-     * 
+     * Paints the current array with the default colour mapping.
      */
     public void paintColor() {
-        currentImage = new BufferedImage(currentWidthInPixels, currentHeightInPixels, 
+        BufferedImage image = new BufferedImage(currentWidthInPixels, currentHeightInPixels, 
                 BufferedImage.TYPE_INT_RGB);
-        Color colorTrue = new Color(0, 0, 0);
-        Color colorFalse;
-        for (int y = 0; y < currentWidthInPixels; y++)
-        {
-            for (int x = 0; x < currentHeightInPixels; x++)
-            {
-                if (currentArray[x][y] == currentMaxIterations)
-                    currentImage.setRGB(y, x, colorTrue.getRGB());
-                else
-                {   
-                    /* A technique for a color feeling. Adjacent array values
-                    -> adjacent colors */
-                    colorFalse= new Color(255 - 5 * currentArray[x][y] % 25, 
-                            255 - 5 * currentArray[x][y] % 256, 255 - 5 * 
-                                    currentArray[x][y] % 256);   
-                    currentImage.setRGB(y, x, colorFalse.getRGB());
-                }
-            }
-        }
-        
+        imagePainter.paint(getCurrentArray(), recolourService.getPalette(
+                DEFAULT_COLOUR_MAPPING_VALUE, currentMaxIterations),
+                image, 0, 0);
+        currentImage = image;
     }
     /**
-     * 
+     * Paints the current array with a random colour mapping.
      * @param randomColourMappingValue 
      */
     public void paintColor(int randomColourMappingValue) {
-        currentImage = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
-        Color colorTrue = new Color(0, 0, 0);
-        Color colorFalse;
-        for (int y = 0; y < currentWidthInPixels; y++)
-        {
-            for (int x = 0; x < currentHeightInPixels; x++)
-            {
-                if (currentArray[x][y] == currentMaxIterations)
-                    currentImage.setRGB(y, x, colorTrue.getRGB());
-                else
-                {
-                    colorFalse= new Color(255 - 5 * currentArray[x][y] % (1 + randomColourMappingValue), 255 - 5 * currentArray[x][y] %  (1 + (randomColourMappingValue * randomColourMappingValue) % 255), 5 * currentArray[x][y] % (1 + (randomColourMappingValue * randomColourMappingValue * randomColourMappingValue) % 255));   // A technique for a color feeling. Adjacent array values -> adjacent colors
-                    currentImage.setRGB(y, x, colorFalse.getRGB());
-                }
-            }
-        }
+        BufferedImage image = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
+        imagePainter.paint(getCurrentArray(), recolourService.getPalette(
+                randomColourMappingValue, currentMaxIterations), image, 0, 0);
+        currentImage = image;
     }
 
     /**
-     * This method is utilised by the animated zoom function.
-     * It projects the smaller image defined by the tempArray parameter to 
-     * the current image.
-     * @param tempArray
-     * @param tempWidthInPixels
-     * @param tempHeightInPixels
-     * @param minRealPixel
-     * @param minImaginaryPixel 
+     * The history methods are not in the interface because they are internal
+     * functionality to the model, they do not concern the View or the Controller.
+     * 
+     * Called when the current frame is replaced.
+     * @return the snapshot of the current frame, or null if its render was
+     * cancelled, in which case its buffer goes back to the pool instead.
      */
-    public void paintColorAboveCurrent(int[][] tempArray, int tempWidthInPixels, int tempHeightInPixels, int minRealPixel, int minImaginaryPixel) {
-        BufferedImage tempImage = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
-        tempImage = deepCopy(currentImage);
-        Color colorTrue = new Color(0, 0, 0);
-        Color colorFalse;
-        for (int y = 0; y < tempWidthInPixels; y++)
-        {
-            for (int x = 0; x < tempHeightInPixels; x++)
-            {
-                if (tempArray[x][y] == currentMaxIterations)
-                    tempImage.setRGB(y + minRealPixel, x + minImaginaryPixel, colorTrue.getRGB());
-                else
-                {
-                    colorFalse= new Color(255 - 5 * tempArray[x][y] % 25, 255 - 5 * tempArray[x][y] % 256, 255 - 5 * tempArray[x][y] % 256);   // A technique for a color feeling. Adjacent array values -> adjacent colors
-                    tempImage.setRGB(y + minRealPixel, x + minImaginaryPixel, colorFalse.getRGB());
-                }
-            }
+    private RenderHistory.Snapshot leaveCurrentFrame() {
+        if (!currentFrameComplete) {
+            iterationBufferPool.release(currentArray);
+            currentArray = null;
+            return null;
         }
-        multipleImages[multipleImagesCounter++] = tempImage;
+        return new RenderHistory.Snapshot(currentMinReal, currentMaxReal, currentMinImaginary,
+                currentMaxImaginary, currentMaxIterations, currentRatio, currentImage, currentArray);
     }
     
     /**
-     *This method is utilised by the two paintColorAboveCurrent methods for 
-     * effectively cloning a BufferedImage.
-     * https://stackoverflow.com/questions/3514158/how-do-you-clone-a-bufferedimage
-     * @param bi
-     * @return 
+     * Makes a frame from the history the current one. A frame whose pixel
+     * data was evicted is rendered again with the current colour mapping.
+     * @param snapshot 
      */
-    static BufferedImage deepCopy(BufferedImage bi) {
-        ColorModel cm = bi.getColorModel();
-        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-        WritableRaster raster = bi.copyData(null);
-        return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
-}
-    
+    private void restoreSnapshot(RenderHistory.Snapshot snapshot) {
+        currentMinReal = snapshot.getMinReal();
+        currentMaxReal = snapshot.getMaxReal();
+        currentMinImaginary = snapshot.getMinImaginary();
+        currentMaxImaginary = snapshot.getMaxImaginary();
+        currentMaxIterations = snapshot.getMaxIterations();
+        currentRatio = snapshot.getRatio();
+        currentArray = snapshot.getIterations();
+        currentOrbits = null;
+        if (snapshot.hasPixels())
+            currentImage = snapshot.getImage();
+        else if (currentColourMappingValue == DEFAULT_COLOUR_MAPPING_VALUE)
+            paintColor();
+        else
+            paintColor(currentColourMappingValue);
+        currentFrameComplete = true;
+    }
     
-    /**
-     * This method is utilised by the animated zoom function.
-     * For random colour.
-     * @param tempArray
-     * @param tempWidthInPixels
-     * @param tempHeightInPixels
-     * @param minRealPixel
-     * @param minImaginaryPixel
-     * @param randomColourMappingValue 
-     */
-    public void paintColorAboveCurrent(int[][] tempArray, int tempWidthInPixels, int tempHeightInPixels, int minRealPixel, int minImaginaryPixel, int randomColourMappingValue) {
-        BufferedImage tempImage = new BufferedImage(currentWidthInPixels, currentHeightInPixels, BufferedImage.TYPE_INT_RGB);
-        tempImage = deepCopy(currentImage);
-        Color colorTrue = new Color(0, 0, 0);
-        Color colorFalse;
-        for (int y = 0; y < tempWidthInPixels; y++)
-        {
-            for (int x = 0; x < tempHeightInPixels; x++)
-            {
-                if (tempArray[x][y] == currentMaxIterations)
-                    tempImage.setRGB(y + minRealPixel, x + minImaginaryPixel, colorTrue.getRGB());
-                else
-                {
-                    colorFalse= new Color(255 - 5 * tempArray[x][y] % (1 + randomColourMappingValue), 255 - 5 * tempArray[x][y] %  (1 + (randomColourMappingValue * randomColourMappingValue) % 255), 5 * tempArray[x][y] % (1 + (randomColourMappingValue * randomColourMappingValue * randomColourMappingValue) % 255));   // A technique for a color feeling. Adjacent array values -> adjacent colors
-                    tempImage.setRGB(y + minRealPixel, x + minImaginaryPixel, colorFalse.getRGB());
-                }
-            }
-        }
-        multipleImages[multipleImagesCounter++] = tempImage;
+    public long getHistoryMemoryBudget() {
+        return history.getMemoryBudget();
     }
     
     /**
-     * next 5 methods not in the iNTERFACE because it is an internal 
-     * functionality to the model it does not concern the View or the Controller
-     **/
-    public void initializeStacks() {
-        
-        pastImages = new Stack<BufferedImage>();
-        pastArrays = new Stack<int[][]>();
-        pastMinReal = new Stack<Double>();
-        pastMaxReal = new Stack<Double>();
-        pastMinImaginary = new Stack<Double>();
-        pastMaxImaginary = new Stack<Double>();
-        pastMaxIterations = new Stack<Integer>();
-        pastRatios = new Stack<Double>();
-        
-        undoneImages = new Stack<BufferedImage>();
-        undoneArrays = new Stack<int[][]>();
-        undoneMinReal = new Stack<Double>();
-        undoneMaxReal = new Stack<Double>();
-        undoneMinImaginary = new Stack<Double>();
-        undoneMaxImaginary = new Stack<Double>();
-        undoneMaxIterations = new Stack<Integer>();
-        undoneRatios = new Stack<Double>();
-    }
-    
-    public void pushToUndoneStacks() {
-        undoneImages.push(currentImage);
-        undoneArrays.push(currentArray);
-        undoneMinReal.push(currentMinReal);
-        undoneMaxReal.push(currentMaxReal);
-        undoneMinImaginary.push(currentMinImaginary);
-        undoneMaxImaginary.push(currentMaxImaginary);
-        undoneMaxIterations.push(currentMaxIterations);
-        undoneRatios.push(currentRatio);
-    }
-    
-    public void popFromPastStacks() {
-        currentImage = pastImages.pop();
-        currentArray = pastArrays.pop();
-        currentMinReal = pastMinReal.pop();
-        currentMaxReal = pastMaxReal.pop();
-        currentMinImaginary = pastMinImaginary.pop();
-        currentMaxImaginary = pastMaxImaginary.pop();
-        currentMaxIterations = pastMaxIterations.pop();
-        currentRatio = pastRatios.pop();
-    }
-    
-    public void pushToPastStacks() {
-        pastImages.push(currentImage);
-        pastArrays.push(currentArray);
-        pastMinReal.push(currentMinReal);
-        pastMaxReal.push(currentMaxReal);
-        pastMinImaginary.push(currentMinImaginary);
-        pastMaxImaginary.push(currentMaxImaginary);
-        pastMaxIterations.push(currentMaxIterations);
-        pastRatios.push(currentRatio);
-    }
-    
-    public void popFromUndoneStacks() {
-        currentImage = undoneImages.pop();
-        currentArray = undoneArrays.pop();
-        currentMinReal = undoneMinReal.pop();
-        currentMaxReal = undoneMaxReal.pop();
-        currentMinImaginary = undoneMinImaginary.pop();
-        currentMaxImaginary = undoneMaxImaginary.pop();
-        currentMaxIterations = undoneMaxIterations.pop();
-        currentRatio = undoneRatios.pop();
+     * @param historyMemoryBudget the bytes of images and iteration values the
+     * undo/redo history may keep. Older frames beyond it are rendered again
+     * when the user goes back to them.
+     */
+    public void setHistoryMemoryBudget(long historyMemoryBudget) {
+        renderJobs.submit(() -> history.setMemoryBudget(historyMemoryBudget));
     }
     
     public int getCurrentMaxIterations() {
@@ -481,20 +786,23 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
         return String.valueOf(currentRatio);
     }
     
+    /* The viewport bounds are written with all their digits, so a deep frame
+       is restored exactly. Older files hold doubles, which parse as well. */
+    
     public String getCurrentMinRealAsString() {
-        return String.valueOf(currentMinReal);
+        return currentMinReal.toString();
     }
     
     public String getCurrentMaxRealAsString() {
-        return String.valueOf(currentMaxReal);
+        return currentMaxReal.toString();
     }
     
     public String getCurrentMinImaginaryAsString() {
-        return String.valueOf(currentMinImaginary);
+        return currentMinImaginary.toString();
     }
     
     public String getCurrentMaxImaginaryAsString() {
-        return String.valueOf(currentMaxImaginary);
+        return currentMaxImaginary.toString();
     }
     
     public void setCurrentMaxIterationsFromString(String currentMaxIterationsAsString) {
@@ -506,19 +814,19 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
     }
     
     public void setCurrentMinRealFromString(String currentMinRealAsString) {
-        currentMinReal = Double.parseDouble(currentMinRealAsString);
+        currentMinReal = new BigDecimal(currentMinRealAsString.trim());
     }
     
     public void setCurrentMaxRealFromString(String currentMaxRealAsString) {
-        currentMaxReal = Double.parseDouble(currentMaxRealAsString);
+        currentMaxReal = new BigDecimal(currentMaxRealAsString.trim());
     }
     
     public void setCurrentMinImaginaryFromString(String currentMinImaginaryAsString) {
-        currentMinImaginary = Double.parseDouble(currentMinImaginaryAsString);
+        currentMinImaginary = new BigDecimal(currentMinImaginaryAsString.trim());
     }
     
     public void setCurrentMaxImaginaryFromString(String currentMaxImaginaryAsString) {
-        currentMaxImaginary = Double.parseDouble(currentMaxImaginaryAsString);
+        currentMaxImaginary = new BigDecimal(currentMaxImaginaryAsString.trim());
     }
     
     
@@ -526,12 +834,49 @@ public class MandelbrotModel extends Observable implements IMandelbrotModel {
             String currentRatioAsString, String currentMinRealAsString,
             String currentMaxRealAsString, String currentMinImaginaryAsString, 
             String currentMaxImaginaryAsString) {
-        setCurrentMaxIterationsFromString(currentMaxIterationsAsString);
-        setCurrentRatioFromString(currentRatioAsString);
-        setCurrentMinRealFromString(currentMinRealAsString);
-        setCurrentMaxRealFromString(currentMaxRealAsString);
-        setCurrentMinImaginaryFromString(currentMinImaginaryAsString);
-        setCurrentMaxImaginaryFromString(currentMaxImaginaryAsString);
-        currentArray = mandelbrotCalculator.calcMandelbrotSet(currentWidthInPixels, currentHeightInPixels, currentMinReal, currentMaxReal, currentMinImaginary, currentMaxImaginary, currentMaxIterations, DEFAULT_RADIUS_SQUARED);
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            setCurrentMaxIterationsFromString(currentMaxIterationsAsString);
+            setCurrentRatioFromString(currentRatioAsString);
+            setCurrentMinRealFromString(currentMinRealAsString);
+            setCurrentMaxRealFromString(currentMaxRealAsString);
+            setCurrentMinImaginaryFromString(currentMinImaginaryAsString);
+            setCurrentMaxImaginaryFromString(currentMaxImaginaryAsString);
+            iterationBufferPool.release(currentArray);
+            currentArray = calculateCurrentArray(true);
+            currentFrameComplete = true;
+        });
+    }
+    
+    /**
+     * Shows an image loaded from a file together with the parameters stored
+     * in it. The image already holds the rendered frame, so nothing is
+     * calculated here. If the iteration values were saved with the image they
+     * become the current array, so recolouring is immediate; otherwise they
+     * are calculated by getCurrentArray() the first time they are needed.
+     * Like setAllParametersFromStrings this replaces the current frame
+     * without adding it to the undo history.
+     * @param loadedIterations the saved iteration values, or null
+     */
+    public void loadImage(BufferedImage loadedImage, IterationBuffer loadedIterations,
+            String currentMaxIterationsAsString,
+            String currentRatioAsString, String currentMinRealAsString,
+            String currentMaxRealAsString, String currentMinImaginaryAsString,
+            String currentMaxImaginaryAsString) {
+        renderJobs.submit(() -> {
+            recolourService.finish();
+            setCurrentMaxIterationsFromString(currentMaxIterationsAsString);
+            setCurrentRatioFromString(currentRatioAsString);
+            setCurrentMinRealFromString(currentMinRealAsString);
+            setCurrentMaxRealFromString(currentMaxRealAsString);
+            setCurrentMinImaginaryFromString(currentMinImaginaryAsString);
+            setCurrentMaxImaginaryFromString(currentMaxImaginaryAsString);
+            iterationBufferPool.release(currentArray);
+            currentArray = loadedIterations;
+            currentOrbits = null;
+            currentImage = loadedImage;
+            currentFrameComplete = true;
+            update();
+        });
     }
 }
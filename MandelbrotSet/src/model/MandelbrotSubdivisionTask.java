@@ -0,0 +1,132 @@
+package model;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The MandelbrotSubdivisionTask class renders a rectangle of the Mandelbrot set with the Mariani-Silver algorithm.
+ * The rectangle [minX, maxX] x [minY, maxY] (bounds inclusive) must already have its border calculated.
+ * If every border pixel has the same iteration value, the interior is filled with that value without being
+ * calculated. Otherwise the rectangle is cut in half along its longer side, the cutting line is calculated, and
+ * both halves (which now have complete borders) are processed recursively, in parallel when requested.
+ * Rectangles smaller than MIN_SIZE are calculated pixel by pixel.
+ *
+ * Since the set and the regions between its escape-time contours are connected, a uniform border almost always
+ * means a uniform interior, and for the usual frames the result is the same as the brute force render. Features
+ * thinner than a pixel that cross no border can be missed, which is the known limitation of the method.
+ */
+class MandelbrotSubdivisionTask extends RecursiveAction {
+
+    protected static final int MIN_SIZE = 8;
+    private static final long serialVersionUID = 1L;
+
+    private final MandelbrotCalculator calculator;
+    private final IterationBuffer mandelbrotData;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private final FrameParameters frame;
+    private final boolean parallel;
+    private final LongAdder kernelCalls;
+
+    MandelbrotSubdivisionTask(MandelbrotCalculator calculator, IterationBuffer mandelbrotData, int minX, int minY, int maxX, int maxY,
+            FrameParameters frame, boolean parallel, LongAdder kernelCalls) {
+        this.calculator = calculator;
+        this.mandelbrotData = mandelbrotData;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.frame = frame;
+        this.parallel = parallel;
+        this.kernelCalls = kernelCalls;
+    }
+
+    /**
+     * Calculates the outline of the rectangle, which the root task needs before it can be processed.
+     */
+    void calcBorder() {
+        for (int x = minX; x <= maxX; x++) {
+            calcPixel(x, minY);
+            if (maxY != minY)
+                calcPixel(x, maxY);
+        }
+        for (int y = minY + 1; y < maxY; y++) {
+            calcPixel(minX, y);
+            if (maxX != minX)
+                calcPixel(maxX, y);
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (frame.isCancelled() || maxX - minX < 2 || maxY - minY < 2)
+            return; // no interior left
+        int borderValue = uniformBorderValue();
+        if (borderValue >= 0) {
+            fillInterior(borderValue);
+        }
+        else if (maxX - minX < MIN_SIZE && maxY - minY < MIN_SIZE) {
+            for (int y = minY + 1; y < maxY; y++)
+                for (int x = minX + 1; x < maxX; x++)
+                    calcPixel(x, y);
+        }
+        else if (maxX - minX >= maxY - minY) {
+            int midX = (minX + maxX) / 2;
+            for (int y = minY + 1; y < maxY; y++)
+                calcPixel(midX, y);
+            split(subTask(minX, minY, midX, maxY), subTask(midX, minY, maxX, maxY));
+        }
+        else {
+            int midY = (minY + maxY) / 2;
+            for (int x = minX + 1; x < maxX; x++)
+                calcPixel(x, midY);
+            split(subTask(minX, minY, maxX, midY), subTask(minX, midY, maxX, maxY));
+        }
+    }
+
+    private void split(MandelbrotSubdivisionTask first, MandelbrotSubdivisionTask second) {
+        if (parallel)
+            invokeAll(first, second);
+        else {
+            first.compute();
+            second.compute();
+        }
+    }
+
+    /**
+     * @return the iteration value shared by all border pixels, or -1 if they differ
+     */
+    private int uniformBorderValue() {
+        int[] data = mandelbrotData.getData();
+        int width = mandelbrotData.getWidth();
+        int value = data[minY * width + minX];
+        for (int x = minX; x <= maxX; x++)
+            if (data[minY * width + x] != value || data[maxY * width + x] != value)
+                return -1;
+        for (int y = minY + 1; y < maxY; y++)
+            if (data[y * width + minX] != value || data[y * width + maxX] != value)
+                return -1;
+        return value;
+    }
+
+    private void fillInterior(int value) {
+        int[] data = mandelbrotData.getData();
+        int width = mandelbrotData.getWidth();
+        for (int y = minY + 1; y < maxY; y++) {
+            int rowOffset = y * width;
+            for (int x = minX + 1; x < maxX; x++)
+                data[rowOffset + x] = value;
+        }
+    }
+
+    private void calcPixel(int x, int y) {
+        mandelbrotData.set(x, y, calculator.calcFramePoint(x, y, frame));
+        kernelCalls.increment();
+    }
+
+    private MandelbrotSubdivisionTask subTask(int minX, int minY, int maxX, int maxY) {
+        return new MandelbrotSubdivisionTask(calculator, mandelbrotData, minX, minY, maxX, maxY, frame, parallel, kernelCalls);
+    }
+}
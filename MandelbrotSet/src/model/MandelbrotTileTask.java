@@ -0,0 +1,67 @@
+package model;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The MandelbrotTileTask class renders a rectangular region of the Mandelbrot set on a ForkJoinPool.
+ * A region larger than TILE_SIZE x TILE_SIZE pixels is split in half along its longer side and both halves are forked.
+ * Because tiles near the set cost far more than tiles outside it, the work is not divided up front: idle workers
+ * steal the unfinished halves of busy workers, so the expensive areas end up shared between all threads.
+ *
+ * For a progressive pass (step greater than 1) the leaves evaluate only the sample pixels of that pass, see
+ * MandelbrotCalculator.calcTileSamples. Once the frame is cancelled the remaining tiles are skipped.
+ */
+class MandelbrotTileTask extends RecursiveAction {
+
+    protected static final int TILE_SIZE = 32;
+    private static final long serialVersionUID = 1L;
+
+    private final MandelbrotCalculator calculator;
+    private final IterationBuffer mandelbrotData;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private final int step;
+    private final int coarseStep;
+    private final FrameParameters frame;
+
+    MandelbrotTileTask(MandelbrotCalculator calculator, IterationBuffer mandelbrotData, int minX, int minY, int maxX, int maxY,
+            int step, int coarseStep, FrameParameters frame) {
+        this.calculator = calculator;
+        this.mandelbrotData = mandelbrotData;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.step = step;
+        this.coarseStep = coarseStep;
+        this.frame = frame;
+    }
+
+    @Override
+    protected void compute() {
+        int width = maxX - minX;
+        int height = maxY - minY;
+        if (frame.isCancelled())
+            return;
+        if (width <= TILE_SIZE && height <= TILE_SIZE) {
+            if (step == 1 && coarseStep == 0)
+                calculator.calcTile(mandelbrotData, minX, minY, maxX, maxY, frame);
+            else
+                calculator.calcTileSamples(mandelbrotData, minX, minY, maxX, maxY, step, coarseStep, frame);
+        }
+        else if (width >= height) {
+            int midX = minX + width / 2;
+            invokeAll(subTask(minX, minY, midX, maxY), subTask(midX, minY, maxX, maxY));
+        }
+        else {
+            int midY = minY + height / 2;
+            invokeAll(subTask(minX, minY, maxX, midY), subTask(minX, midY, maxX, maxY));
+        }
+    }
+
+    private MandelbrotTileTask subTask(int minX, int minY, int maxX, int maxY) {
+        return new MandelbrotTileTask(calculator, mandelbrotData, minX, minY, maxX, maxY, step, coarseStep, frame);
+    }
+}
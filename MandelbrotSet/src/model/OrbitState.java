@@ -0,0 +1,140 @@
+package model;
+
+/**
+ * The OrbitState class keeps, for a rendered frame, the last value of Z of every pixel that was still iterating when
+ * maxIterations was reached. With it, raising maxIterations resumes those pixels where they stopped instead of
+ * rendering the frame again, see MandelbrotCalculator.resumeMandelbrotSet.
+ *
+ * Pixels that escaped are final, and pixels proven to be inside the set (main cardioid, period-2 bulb or a periodic
+ * orbit) stay inside for any maxIterations, so neither is kept. The only escaped pixels kept are those that escaped on the very last
+ * iteration, because their value cannot be told apart from that of a pixel inside the set. The state is stored compactly as one array of pixel
+ * indices and one array of interleaved real and imaginary parts, so it takes 20 bytes per unresolved pixel.
+ *
+ * The calculator fills a state while rendering; tiles rendered in parallel collect into states of their own that are
+ * merged with addAll. A state only describes its frame once the render has completed it.
+ */
+public final class OrbitState {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int maxIterations = -1;
+    private int count;
+    private int[] pixels = new int[INITIAL_CAPACITY];
+    private double[] z = new double[2 * INITIAL_CAPACITY];
+
+    /**
+     * @return true if the state describes every unresolved pixel of a completed render
+     */
+    public boolean isComplete() {
+        return maxIterations >= 0;
+    }
+
+    /**
+     * @return the maxIterations of the frame the state describes, or -1 if it is not complete
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @return the number of unresolved pixels
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the bytes of the arrays held
+     */
+    public long getBytes() {
+        return 4L * pixels.length + 8L * z.length;
+    }
+
+    void add(int pixel, double zReal, double zImaginary) {
+        if (count == pixels.length) {
+            int[] grownPixels = new int[2 * count];
+            System.arraycopy(pixels, 0, grownPixels, 0, count);
+            pixels = grownPixels;
+            double[] grownZ = new double[4 * count];
+            System.arraycopy(z, 0, grownZ, 0, 2 * count);
+            z = grownZ;
+        }
+        pixels[count] = pixel;
+        z[2 * count] = zReal;
+        z[2 * count + 1] = zImaginary;
+        count++;
+    }
+
+    /**
+     * Records a pixel that escaped on the last of the maxIterations iterations. Its value equals maxIterations although it is outside the
+     * set, so it must keep that value when maxIterations is raised.
+     */
+    void addEscapedAtLimit(int pixel) {
+        add(pixel, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * @return true if the pixel at index escaped on the last iteration, see addEscapedAtLimit
+     */
+    boolean isEscapedAtLimit(int index) {
+        return Double.isNaN(z[2 * index]);
+    }
+
+    /**
+     * Appends the pixels collected for one tile.
+     */
+    synchronized void addAll(OrbitState tileState) {
+        for (int i = 0; i < tileState.count; i++)
+            add(tileState.pixels[i], tileState.z[2 * i], tileState.z[2 * i + 1]);
+    }
+
+    int getPixel(int index) {
+        return pixels[index];
+    }
+
+    double getReal(int index) {
+        return z[2 * index];
+    }
+
+    double getImaginary(int index) {
+        return z[2 * index + 1];
+    }
+
+    void set(int index, double zReal, double zImaginary) {
+        z[2 * index] = zReal;
+        z[2 * index + 1] = zImaginary;
+    }
+
+    /**
+     * Marks a pixel as escaped, so that complete drops it.
+     */
+    void remove(int index) {
+        pixels[index] = -1;
+    }
+
+    /**
+     * Drops the removed pixels, trims the arrays to the pixels left and records the maxIterations they were
+     * iterated to.
+     */
+    void complete(int maxIterations) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (pixels[i] < 0)
+                continue;
+            pixels[kept] = pixels[i];
+            z[2 * kept] = z[2 * i];
+            z[2 * kept + 1] = z[2 * i + 1];
+            kept++;
+        }
+        count = kept;
+        if (pixels.length > count) {
+            int[] trimmedPixels = new int[count];
+            System.arraycopy(pixels, 0, trimmedPixels, 0, count);
+            pixels = trimmedPixels;
+            double[] trimmedZ = new double[2 * count];
+            System.arraycopy(z, 0, trimmedZ, 0, 2 * count);
+            z = trimmedZ;
+        }
+        this.maxIterations = maxIterations;
+    }
+}
@@ -0,0 +1,291 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * The PerturbationCalculator class calculates frames that are too deep for the arithmetic of the MandelbrotCalculator.
+ * Below a pixel spacing of about 1e-12 times the magnitude of the coordinates double arithmetic loses the detail
+ * between neighbouring pixels, and the MandelbrotCalculator switches to double-double arithmetic; below about 1e-21 that
+ * runs out of digits as well.
+ *
+ * Only one orbit, the reference orbit X_n of the pixel in the middle of the frame, is iterated at arbitrary precision
+ * with BigDecimal. Every pixel C = X_c + dC then iterates its small difference D_n = Z_n - X_n to the reference in
+ * double precision:
+ *
+ *     D_n+1 = 2 * X_n * D_n + D_n^2 + dC
+ *
+ * which only involves numbers of the size of the pixel spacing and so stays accurate at any depth a double exponent
+ * can express. When the difference grows as large as the pixel's own orbit (|Z_n| < |D_n|), or when the reference
+ * orbit escapes before the pixel does, the reference can no longer describe the pixel ("glitch"). The pixel is then
+ * rebased: its full value becomes the new difference to the start of the reference orbit, D = Z_n, and the iteration
+ * continues from X_0. This makes a single reference orbit sufficient for the whole frame.
+ *
+ * Unless it is switched off, a SeriesApproximation lets every pixel skip the iterations at the start of the orbit
+ * that all pixels of the frame share; getLastSeriesSkip reports how many that were.
+ *
+ * The iteration values are counted exactly like MandelbrotCalculator.calcMandel counts them, so the same palettes apply.
+ * Like the MandelbrotCalculator, rows are calculated on a ForkJoinPool of the calculator's own, unless
+ * setParallelRendering(false) selects the single-threaded loop; setParallelism(int) chooses the number of worker threads.
+ */
+public class PerturbationCalculator {
+
+    //Decimal digits kept beyond those needed to tell neighbouring pixels apart
+    protected static final int GUARD_DIGITS = 20;
+
+    private volatile long lastRebaseCount;
+    private volatile int lastSeriesSkip;
+    private volatile long lastSkippedIterations;
+    private boolean seriesApproximation = true;
+    private boolean parallelRendering = true;
+    private int parallelism = MandelbrotCalculator.DEFAULT_PARALLELISM;
+    private ForkJoinPool renderPool;
+
+    /**
+     * @return true if double-double arithmetic cannot resolve the pixels of the frame
+     */
+    public static boolean isNeeded(BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary,
+            BigDecimal maxImaginary, int width, int height) {
+        double magnitude = Math.max(Math.max(Math.abs(minReal.doubleValue()), Math.abs(maxReal.doubleValue())),
+                Math.max(Math.abs(minImaginary.doubleValue()), Math.abs(maxImaginary.doubleValue())));
+        double realStep = maxReal.subtract(minReal).doubleValue() / width;
+        double imaginaryStep = maxImaginary.subtract(minImaginary).doubleValue() / height;
+        return Math.min(realStep, imaginaryStep) < magnitude * MandelbrotCalculator.DOUBLE_DOUBLE_PRECISION_LIMIT;
+    }
+
+    /**
+     * @param span the width or height of a viewport
+     * @param pixels the number of pixels across it
+     * @return a MathContext precise enough to address every pixel of the span, whatever its depth
+     */
+    public static MathContext mathContextFor(BigDecimal span, int pixels) {
+        int exponent = span.signum() == 0 ? 0 : span.precision() - span.scale() - 1;
+        int digits = GUARD_DIGITS + Math.max(0, -exponent) + String.valueOf(Math.max(1, pixels)).length();
+        return new MathContext(Math.max(MathContext.DECIMAL64.getPrecision(), digits));
+    }
+
+    /**
+     * Calculates a frame into an existing buffer, in parallel by rows unless parallel rendering is switched off.
+     * The viewport bounds are used at full precision; pixel (x, y) has C = minReal + x * realStep + i * (minImaginary
+     * + y * imaginaryStep), like in the MandelbrotCalculator.
+     * @param cancelled polled before each row is calculated.
+     * @throws CancellationException if the render was cancelled. The content of the buffer is then undefined.
+     */
+    public void calcMandelbrotSet(IterationBuffer mandelbrotData, BigDecimal minReal, BigDecimal maxReal,
+            BigDecimal minImaginary, BigDecimal maxImaginary, int maxIterations, double radiusSquared,
+            BooleanSupplier cancelled) {
+        int width = mandelbrotData.getWidth();
+        int height = mandelbrotData.getHeight();
+        if (width == 0 || height == 0)
+            return;
+        MathContext mathContext = mathContextFor(maxReal.subtract(minReal).min(maxImaginary.subtract(minImaginary)),
+                Math.max(width, height));
+        BigDecimal realStep = maxReal.subtract(minReal).divide(BigDecimal.valueOf(width), mathContext);
+        BigDecimal imaginaryStep = maxImaginary.subtract(minImaginary).divide(BigDecimal.valueOf(height), mathContext);
+        int referenceX = width / 2;
+        int referenceY = height / 2;
+        BigDecimal referenceReal = minReal.add(realStep.multiply(BigDecimal.valueOf(referenceX)), mathContext);
+        BigDecimal referenceImaginary = minImaginary.add(imaginaryStep.multiply(BigDecimal.valueOf(referenceY)),
+                mathContext);
+        double[][] orbit = calcReferenceOrbit(referenceReal, referenceImaginary, maxIterations, radiusSquared,
+                mathContext);
+
+        double realStepDouble = realStep.doubleValue();
+        double imaginaryStepDouble = imaginaryStep.doubleValue();
+        SeriesApproximation series = null;
+        if (seriesApproximation) {
+            double left = -referenceX * realStepDouble;
+            double right = (width - 1 - referenceX) * realStepDouble;
+            double top = -referenceY * imaginaryStepDouble;
+            double bottom = (height - 1 - referenceY) * imaginaryStepDouble;
+            double[][] probes = {{left, top}, {0, top}, {right, top}, {left, 0}, {right, 0},
+                {left, bottom}, {0, bottom}, {right, bottom}};
+            series = SeriesApproximation.compute(orbit[0], orbit[1], probes, maxIterations - 1, radiusSquared);
+        }
+        SeriesApproximation startSeries = series;
+        int[] data = mandelbrotData.getData();
+        LongAdder rebases = new LongAdder();
+        IntConsumer row = y -> {
+            if (cancelled.getAsBoolean())
+                return;
+            double deltaImaginary = (y - referenceY) * imaginaryStepDouble;
+            int rowOffset = y * width;
+            long rowRebases = 0;
+            for (int x = 0; x < width; x++) {
+                long result = calcPixel(orbit[0], orbit[1], (x - referenceX) * realStepDouble, deltaImaginary,
+                        startSeries, maxIterations, radiusSquared);
+                data[rowOffset + x] = (int) result;
+                rowRebases += result >>> 32;
+            }
+            rebases.add(rowRebases);
+        };
+        if (parallelRendering && parallelism > 1)
+            getRenderPool().submit(() -> IntStream.range(0, height).parallel().forEach(row)).join();
+        else {
+            for (int y = 0; y < height && !cancelled.getAsBoolean(); y++)
+                row.accept(y);
+        }
+        if (cancelled.getAsBoolean())
+            throw new CancellationException("Mandelbrot render cancelled");
+        lastRebaseCount = rebases.sum();
+        lastSeriesSkip = series == null ? 0 : series.getSkip();
+        lastSkippedIterations = (long) lastSeriesSkip * width * height;
+    }
+
+    /**
+     * Iterates the reference point at the given precision until it escapes or maxIterations is reached.
+     * @return the real and imaginary parts of X_0 .. X_n rounded to double, n + 1 >= 2 values each
+     */
+    static double[][] calcReferenceOrbit(BigDecimal cReal, BigDecimal cImaginary, int maxIterations,
+            double radiusSquared, MathContext mathContext) {
+        double[] orbitReal = new double[maxIterations + 1];
+        double[] orbitImaginary = new double[maxIterations + 1];
+        BigDecimal two = BigDecimal.valueOf(2);
+        BigDecimal zr = BigDecimal.ZERO;
+        BigDecimal zi = BigDecimal.ZERO;
+        int length = 1;
+        while (length <= maxIterations) {
+            BigDecimal nzr = zr.multiply(zr, mathContext).subtract(zi.multiply(zi, mathContext), mathContext)
+                    .add(cReal, mathContext);
+            BigDecimal nzi = two.multiply(zr, mathContext).multiply(zi, mathContext).add(cImaginary, mathContext);
+            zr = nzr;
+            zi = nzi;
+            orbitReal[length] = zr.doubleValue();
+            orbitImaginary[length] = zi.doubleValue();
+            length++;
+            if (orbitReal[length - 1] * orbitReal[length - 1] + orbitImaginary[length - 1] * orbitImaginary[length - 1]
+                    > radiusSquared)
+                break;
+        }
+        if (length < 2) {
+            // maxIterations == 0: keep X_1 = C so that rebasing always has a step to take
+            orbitReal[1] = cReal.doubleValue();
+            orbitImaginary[1] = cImaginary.doubleValue();
+            length = 2;
+        }
+        double[][] orbit = {new double[length], new double[length]};
+        System.arraycopy(orbitReal, 0, orbit[0], 0, length);
+        System.arraycopy(orbitImaginary, 0, orbit[1], 0, length);
+        return orbit;
+    }
+
+    /**
+     * Iterates one pixel relative to the reference orbit.
+     * @param series if not null, the pixel starts at its skip instead of 0
+     * @return the iteration value in the low 32 bits and the number of rebases in the high 32 bits
+     */
+    static long calcPixel(double[] orbitReal, double[] orbitImaginary, double dcReal, double dcImaginary,
+            SeriesApproximation series, int maxIterations, double radiusSquared) {
+        int last = orbitReal.length - 1;
+        int reference = 0;
+        double dr = 0;
+        double di = 0;
+        if (series != null && series.getSkip() > 0) {
+            double[] start = series.evaluate(dcReal, dcImaginary);
+            reference = series.getSkip();
+            dr = start[0];
+            di = start[1];
+        }
+        long rebases = 0;
+        for (int iterations = reference; iterations < maxIterations; iterations++) {
+            double xr = orbitReal[reference];
+            double xi = orbitImaginary[reference];
+            double zr = xr + dr;
+            double zi = xi + di;
+            double z2 = zr * zr + zi * zi;
+            if (z2 > radiusSquared)
+                return (rebases << 32) | (iterations + 1);
+            if (reference == last || z2 < dr * dr + di * di) {
+                // glitch: continue from the start of the reference orbit with the full value as difference
+                dr = zr;
+                di = zi;
+                xr = 0;
+                xi = 0;
+                reference = 0;
+                rebases++;
+            }
+            double ndr = (2 * xr + dr) * dr - (2 * xi + di) * di + dcReal;
+            double ndi = (2 * xr + dr) * di + (2 * xi + di) * dr + dcImaginary;
+            dr = ndr;
+            di = ndi;
+            reference++;
+        }
+        return (rebases << 32) | maxIterations;
+    }
+
+    public boolean isSeriesApproximation() {
+        return seriesApproximation;
+    }
+
+    /**
+     * @param seriesApproximation true to let the pixels skip their shared iterations, false to iterate every pixel
+     *        from the start. The results agree within the error bound of the series.
+     */
+    public void setSeriesApproximation(boolean seriesApproximation) {
+        this.seriesApproximation = seriesApproximation;
+    }
+
+    public boolean isParallelRendering() {
+        return parallelRendering;
+    }
+
+    /**
+     * @param parallelRendering true to calculate the rows on the ForkJoinPool, false to use the single-threaded loop.
+     */
+    public void setParallelRendering(boolean parallelRendering) {
+        this.parallelRendering = parallelRendering;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of worker threads used for parallel rendering. A value of 1 renders serially.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        if (parallelism != this.parallelism && renderPool != null) {
+            renderPool.shutdown();
+            renderPool = null;
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The pool is created lazily so that a calculator used only in serial mode never starts any threads.
+     */
+    private synchronized ForkJoinPool getRenderPool() {
+        if (renderPool == null)
+            renderPool = new ForkJoinPool(parallelism);
+        return renderPool;
+    }
+
+    /**
+     * @return the iteration every pixel of the last frame started at
+     */
+    public int getLastSeriesSkip() {
+        return lastSeriesSkip;
+    }
+
+    /**
+     * @return the iterations the series approximation saved over the whole last frame
+     */
+    public long getLastSkippedIterations() {
+        return lastSkippedIterations;
+    }
+
+    /**
+     * @return how many times pixels of the last frame were rebased onto the start of the reference orbit
+     */
+    public long getLastRebaseCount() {
+        return lastRebaseCount;
+    }
+}
@@ -0,0 +1,133 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The RecolourService class repaints an already calculated frame with a different colour mapping.
+ * The iteration field stays resident in the model, so a recolour never goes back to the MandelbrotCalculator.
+ * The palettes of the most recently used mappings are kept in an LRU cache, so flipping back to a recent mapping
+ * does not even rebuild its lookup table.
+ *
+ * Recolouring runs on a background thread in SLICES horizontal slices, so a new recolour request can cancel the
+ * previous one between two slices. After each slice the slices painted so far are handed out in a new image, over
+ * the rows of the image shown before, so the new colours appear progressively while no image that has been handed
+ * out is ever painted again.
+ */
+public class RecolourService {
+
+    protected static final int DEFAULT_CACHED_PALETTES = 16;
+    protected static final int SLICES = 8;
+
+    private final ImagePainter imagePainter;
+    private final Map<Long, ColourPalette> palettes;
+    private final ExecutorService executor;
+    private Future<?> pendingRecolour;
+
+    public RecolourService(ImagePainter imagePainter) {
+        this(imagePainter, DEFAULT_CACHED_PALETTES);
+    }
+
+    /**
+     * @param imagePainter the painter used for the slices
+     * @param cachedPalettes the number of palettes kept in the LRU cache
+     */
+    public RecolourService(ImagePainter imagePainter, final int cachedPalettes) {
+        this.imagePainter = imagePainter;
+        // An access-ordered LinkedHashMap evicts the least recently used palette first
+        this.palettes = new LinkedHashMap<Long, ColourPalette>(cachedPalettes * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ColourPalette> eldest) {
+                return size() > cachedPalettes;
+            }
+        };
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot recolour");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the palette for a colour mapping, building it only if it is not in the cache.
+     * @param colourMappingValue a random mapping value, or a negative value for the default mapping
+     * @param maxIterations
+     * @return 
+     */
+    public synchronized ColourPalette getPalette(int colourMappingValue, int maxIterations) {
+        Long key = ((long) colourMappingValue << 32) | (maxIterations & 0xffffffffL);
+        ColourPalette palette = palettes.get(key);
+        if (palette == null) {
+            palette = ColourPalette.forMapping(colourMappingValue, maxIterations);
+            palettes.put(key, palette);
+        }
+        return palette;
+    }
+
+    /**
+     * Starts recolouring a frame from its iteration field with the given palette.
+     * @param iterationField the resident iteration values of the frame
+     * @param palette
+     * @param shown the image of the frame shown now, of the same size as the iteration field. It is not modified.
+     * @param sliceListener called on the background thread after each slice with a new image, holding the slices
+     * painted so far and the rows of shown below them. The image of the last slice is the complete recolour. Not
+     * called once the recolour has been cancelled.
+     * @return a future completing once the whole image has been recoloured
+     */
+    public synchronized Future<?> recolour(final IterationBuffer iterationField, final ColourPalette palette,
+            final BufferedImage shown, final Consumer<BufferedImage> sliceListener) {
+        if (pendingRecolour != null)
+            pendingRecolour.cancel(true);
+        pendingRecolour = executor.submit(() -> {
+            int width = iterationField.getWidth();
+            int height = iterationField.getHeight();
+            int sliceHeight = (height + SLICES - 1) / SLICES;
+            BufferedImage previous = ImagePainter.toIntRgb(shown);
+            for (int minY = 0; minY < height; minY += sliceHeight) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                // copies the previous image unshifted
+                ImagePainter.shift(previous, image, 0, 0);
+                imagePainter.paint(iterationField, palette, image, 0, 0, minY, Math.min(height, minY + sliceHeight));
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                sliceListener.accept(image);
+                previous = image;
+            }
+        });
+        return pendingRecolour;
+    }
+
+    /**
+     * Blocks until the last recolour request has completed. The model calls this before it changes the current
+     * frame, so a recolour of the previous frame is never published over the new one. Requests run one after the
+     * other on a single thread, so the cancelled ones have finished by then as well.
+     */
+    public void finish() {
+        Future<?> recolour;
+        synchronized (this) {
+            recolour = pendingRecolour;
+        }
+        if (recolour == null)
+            return;
+        try {
+            recolour.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(RecolourService.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (CancellationException ex) {
+            // Superseded by a newer request, which the next recolour call or finish() will wait for
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * The RenderHistory class holds the undo and redo history of the model as two stacks of immutable snapshots.
+ *
+ * A snapshot always keeps the viewport parameters of its frame, which take a few bytes, and usually also its image
+ * and iteration values, which take several megabytes at high resolutions. When the pixel data of all snapshots
+ * exceeds the memory budget, the pixel data of the oldest snapshots is dropped, while the snapshots themselves stay
+ * in the history. Undoing or redoing to a snapshot without pixel data makes the model render the frame again, so
+ * recent steps stay instant while a long session no longer grows the heap without limit.
+ */
+public class RenderHistory {
+
+    private final Deque<Snapshot> past = new ArrayDeque<Snapshot>();
+    private final Deque<Snapshot> undone = new ArrayDeque<Snapshot>();
+    private final IterationBufferPool iterationBufferPool;
+    private long memoryBudget;
+    private long pixelBytes;
+
+    /**
+     * @param memoryBudget the maximum number of bytes of images and iteration values kept in the history
+     * @param iterationBufferPool receives the iteration buffers of evicted snapshots. May be null.
+     */
+    public RenderHistory(long memoryBudget, IterationBufferPool iterationBufferPool) {
+        this.iterationBufferPool = iterationBufferPool;
+        setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Records the frame being left for a new one. Like the original stacks, this leaves the redo history alone.
+     */
+    public void record(Snapshot current) {
+        push(past, current);
+        evict();
+    }
+
+    public boolean canUndo() {
+        return !past.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !undone.isEmpty();
+    }
+
+    /**
+     * @param current the frame being left, or null if it is not worth keeping (e.g. its render was cancelled)
+     * @return the previous frame
+     */
+    public Snapshot undo(Snapshot current) {
+        Snapshot previous = pop(past);
+        if (current != null)
+            push(undone, current);
+        evict();
+        return previous;
+    }
+
+    /**
+     * @param current the frame being left, or null if it is not worth keeping
+     * @return the frame undone last
+     */
+    public Snapshot redo(Snapshot current) {
+        Snapshot next = pop(undone);
+        if (current != null)
+            push(past, current);
+        evict();
+        return next;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Changing the budget evicts pixel data at once if the history no longer fits.
+     * @param memoryBudget in bytes, 0 keeps no pixel data at all
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0)
+            throw new IllegalArgumentException("The memory budget cannot be negative: " + memoryBudget);
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    /**
+     * @return the bytes of pixel data currently held by the history
+     */
+    public long getPixelBytes() {
+        return pixelBytes;
+    }
+
+    public int size() {
+        return past.size() + undone.size();
+    }
+
+    private void push(Deque<Snapshot> stack, Snapshot snapshot) {
+        stack.push(snapshot);
+        pixelBytes += snapshot.getPixelBytes();
+    }
+
+    private Snapshot pop(Deque<Snapshot> stack) {
+        Snapshot snapshot = stack.pop();
+        pixelBytes -= snapshot.getPixelBytes();
+        return snapshot;
+    }
+
+    /**
+     * Drops pixel data until the budget is met: the oldest undo steps first, then the redo steps furthest from the
+     * current frame. The dropped snapshots are replaced by copies holding only the viewport parameters.
+     */
+    private void evict() {
+        evict(past);
+        evict(undone);
+    }
+
+    private void evict(Deque<Snapshot> stack) {
+        if (pixelBytes <= memoryBudget)
+            return;
+        Deque<Snapshot> kept = new ArrayDeque<Snapshot>(stack.size());
+        for (Iterator<Snapshot> oldestFirst = stack.descendingIterator(); oldestFirst.hasNext(); ) {
+            Snapshot snapshot = oldestFirst.next();
+            if (pixelBytes > memoryBudget && snapshot.hasPixels()) {
+                pixelBytes -= snapshot.getPixelBytes();
+                if (iterationBufferPool != null)
+                    iterationBufferPool.release(snapshot.getIterations());
+                snapshot = snapshot.withoutPixels();
+            }
+            kept.push(snapshot);
+        }
+        stack.clear();
+        stack.addAll(kept);
+    }
+
+    /**
+     * The state of one frame: its viewport parameters and, unless they were evicted, its image and iteration values.
+     */
+    public static final class Snapshot {
+
+        private final BigDecimal minReal;
+        private final BigDecimal maxReal;
+        private final BigDecimal minImaginary;
+        private final BigDecimal maxImaginary;
+        private final int maxIterations;
+        private final double ratio;
+        private final BufferedImage image;
+        private final IterationBuffer iterations;
+
+        /**
+         * @param minReal the viewport bounds are kept at full precision, so deep frames are restored exactly
+         * @param image the image of the frame, or null if it has to be rendered again
+         * @param iterations the iteration values of the frame, or null if they have not been calculated
+         */
+        public Snapshot(BigDecimal minReal, BigDecimal maxReal, BigDecimal minImaginary, BigDecimal maxImaginary,
+                int maxIterations, double ratio, BufferedImage image, IterationBuffer iterations) {
+            this.minReal = minReal;
+            this.maxReal = maxReal;
+            this.minImaginary = minImaginary;
+            this.maxImaginary = maxImaginary;
+            this.maxIterations = maxIterations;
+            this.ratio = ratio;
+            this.image = image;
+            this.iterations = iterations;
+        }
+
+        public BigDecimal getMinReal() {
+            return minReal;
+        }
+
+        public BigDecimal getMaxReal() {
+            return maxReal;
+        }
+
+        public BigDecimal getMinImaginary() {
+            return minImaginary;
+        }
+
+        public BigDecimal getMaxImaginary() {
+            return maxImaginary;
+        }
+
+        public int getMaxIterations() {
+            return maxIterations;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        /**
+         * @return false if the pixel data was evicted, the frame then has to be rendered again
+         */
+        public boolean hasPixels() {
+            return image != null;
+        }
+
+        /**
+         * @return the image, or null if it was evicted
+         */
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * @return the iteration values, or null if they were evicted or never calculated
+         */
+        public IterationBuffer getIterations() {
+            return iterations;
+        }
+
+        Snapshot withoutPixels() {
+            return new Snapshot(minReal, maxReal, minImaginary, maxImaginary, maxIterations, ratio, null, null);
+        }
+
+        long getPixelBytes() {
+            if (!hasPixels())
+                return 0;
+            long bytes = 4L * image.getWidth() * image.getHeight();
+            if (iterations != null)
+                bytes += 4L * iterations.getData().length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The RenderJobScheduler class runs the model's work off the Swing event thread.
+ * All jobs run one after the other on a single background thread, in the order they were submitted, so the model
+ * state is only ever changed by that thread and needs no further locking.
+ *
+ * Render jobs submitted with submitReplacing supersede each other: a new one cancels the previous one, which is
+ * skipped if it has not started yet, or abandons its render at the next tile if it has. Jobs submitted with
+ * submitReplaceable are cancelled the same way, but always start, as they change the model before they render.
+ */
+public class RenderJobScheduler {
+
+    /**
+     * A job that polls cancelled while it works and gives up (usually by letting the
+     * CancellationException of the MandelbrotCalculator propagate) once it returns true.
+     */
+    public interface CancellableJob {
+        void run(BooleanSupplier cancelled);
+    }
+
+    private final ExecutorService executor;
+    private AtomicBoolean latestRenderCancelled;
+
+    public RenderJobScheduler() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Mandelbrot render");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a job that always runs to completion.
+     * @param job
+     * @return a future completing when the job has run
+     */
+    public Future<?> submit(Runnable job) {
+        return executor.submit(() -> {
+            try {
+                job.run();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(RenderJobScheduler.class.getName()).log(Level.SEVERE, null, ex);
+                throw ex;
+            }
+        });
+    }
+
+    /**
+     * Queues a render job and cancels the previously submitted one, whose result would be stale.
+     * The returned future can also be cancelled directly.
+     * @param job
+     * @return a future completing when the job has run or given up
+     */
+    public Future<?> submitReplacing(CancellableJob job) {
+        return submitRender(job, true);
+    }
+
+    /**
+     * Queues a render job like submitReplacing, which is not skipped even if a newer render job is submitted before
+     * it starts: it then runs with cancelled already true.
+     * @param job
+     * @return a future completing when the job has run or given up
+     */
+    public Future<?> submitReplaceable(CancellableJob job) {
+        return submitRender(job, false);
+    }
+
+    private synchronized Future<?> submitRender(CancellableJob job, boolean skippable) {
+        if (latestRenderCancelled != null)
+            latestRenderCancelled.set(true);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        latestRenderCancelled = cancelled;
+        return submit(() -> {
+            if (skippable && cancelled.get())
+                return;
+            // Future.cancel(true) interrupts this thread, which the render tasks on other threads cannot see
+            Thread jobThread = Thread.currentThread();
+            try {
+                job.run(() -> cancelled.get() || jobThread.isInterrupted());
+            } catch (CancellationException ex) {
+                // Superseded by a newer job
+            }
+        });
+    }
+}
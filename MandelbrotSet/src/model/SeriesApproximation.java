@@ -0,0 +1,151 @@
+package model;
+
+/**
+ * The SeriesApproximation class lets the pixels of a deep frame skip the iterations they all share.
+ *
+ * Along the reference orbit X_n the perturbation D_n of a pixel with offset dC is approximated by the cubic
+ *
+ *     D_n = A_n * dC + B_n * dC^2 + C_n * dC^3
+ *
+ * whose coefficients follow from D_n+1 = 2 * X_n * D_n + D_n^2 + dC:
+ *
+ *     A_n+1 = 2 * X_n * A_n + 1
+ *     B_n+1 = 2 * X_n * B_n + A_n^2
+ *     C_n+1 = 2 * X_n * C_n + 2 * A_n * B_n
+ *
+ * As long as the neglected higher terms are tiny, every pixel can start at iteration N with D_N evaluated from the
+ * cubic instead of iterating from 0. The skip N is chosen in two steps: the coefficients are advanced while the cubic
+ * term stays a small fraction of the quadratic one at the largest offset of the frame, then the result is checked
+ * against probe pixels on the corners and edges of the frame that are iterated normally up to N. If a probe
+ * disagrees or escapes before N, the largest N at which they all agree is found by bisection.
+ */
+final class SeriesApproximation {
+
+    //The cubic term may reach this share of the quadratic term at the largest offset
+    static final double TERM_TOLERANCE = 1e-4;
+    //Largest relative difference between the series and an iterated probe at the skip
+    static final double PROBE_TOLERANCE = 1e-9;
+
+    private final int skip;
+    private final double ar;
+    private final double ai;
+    private final double br;
+    private final double bi;
+    private final double cr;
+    private final double ci;
+
+    private SeriesApproximation(int skip, double ar, double ai, double br, double bi, double cr, double ci) {
+        this.skip = skip;
+        this.ar = ar;
+        this.ai = ai;
+        this.br = br;
+        this.bi = bi;
+        this.cr = cr;
+        this.ci = ci;
+    }
+
+    /**
+     * @param orbitReal the reference orbit as returned by PerturbationCalculator.calcReferenceOrbit
+     * @param probes the offsets {dcReal, dcImaginary} of the probe pixels, the outermost pixels of the frame
+     * @param maxSkip the skip is at most this
+     * @return the approximation at the largest safe skip, which may be 0
+     */
+    static SeriesApproximation compute(double[] orbitReal, double[] orbitImaginary, double[][] probes,
+            int maxSkip, double radiusSquared) {
+        double maxOffset = 0;
+        for (double[] probe : probes)
+            maxOffset = Math.max(maxOffset, Math.hypot(probe[0], probe[1]));
+        int limit = Math.max(0, Math.min(maxSkip, orbitReal.length - 1));
+        SeriesApproximation series = advance(orbitReal, orbitImaginary, limit, maxOffset);
+        if (series.skip == 0 || series.agreesWith(orbitReal, orbitImaginary, probes, radiusSquared))
+            return series;
+        // bisect between a skip that agrees and one that does not
+        SeriesApproximation agreeing = advance(orbitReal, orbitImaginary, 0, 0);
+        int disagreeing = series.skip;
+        while (disagreeing - agreeing.skip > 1) {
+            SeriesApproximation candidate = advance(orbitReal, orbitImaginary,
+                    (agreeing.skip + disagreeing) >>> 1, 0);
+            if (candidate.agreesWith(orbitReal, orbitImaginary, probes, radiusSquared))
+                agreeing = candidate;
+            else
+                disagreeing = candidate.skip;
+        }
+        return agreeing;
+    }
+
+    /**
+     * Advances the coefficients up to limit iterations, or less if the cubic term grows too large at maxOffset.
+     * A maxOffset of 0 only stops at coefficients that overflow.
+     */
+    private static SeriesApproximation advance(double[] orbitReal, double[] orbitImaginary, int limit,
+            double maxOffset) {
+        double ar = 0, ai = 0, br = 0, bi = 0, cr = 0, ci = 0;
+        int n = 0;
+        while (n < limit) {
+            double xr = orbitReal[n];
+            double xi = orbitImaginary[n];
+            double nar = 2 * (xr * ar - xi * ai) + 1;
+            double nai = 2 * (xr * ai + xi * ar);
+            double nbr = 2 * (xr * br - xi * bi) + ar * ar - ai * ai;
+            double nbi = 2 * (xr * bi + xi * br) + 2 * ar * ai;
+            double ncr = 2 * (xr * cr - xi * ci) + 2 * (ar * br - ai * bi);
+            double nci = 2 * (xr * ci + xi * cr) + 2 * (ar * bi + ai * br);
+            if (!Double.isFinite(ncr) || !Double.isFinite(nci)
+                    || Math.hypot(ncr, nci) * maxOffset > TERM_TOLERANCE * Math.hypot(nbr, nbi))
+                break;
+            ar = nar;
+            ai = nai;
+            br = nbr;
+            bi = nbi;
+            cr = ncr;
+            ci = nci;
+            n++;
+        }
+        return new SeriesApproximation(n, ar, ai, br, bi, cr, ci);
+    }
+
+    /**
+     * Iterates every probe from 0 to the skip and compares it with the series.
+     */
+    private boolean agreesWith(double[] orbitReal, double[] orbitImaginary, double[][] probes, double radiusSquared) {
+        for (double[] probe : probes) {
+            double dr = 0;
+            double di = 0;
+            for (int n = 0; n < skip; n++) {
+                double zr = orbitReal[n] + dr;
+                double zi = orbitImaginary[n] + di;
+                if (zr * zr + zi * zi > radiusSquared)
+                    return false;
+                double ndr = (2 * orbitReal[n] + dr) * dr - (2 * orbitImaginary[n] + di) * di + probe[0];
+                double ndi = (2 * orbitReal[n] + dr) * di + (2 * orbitImaginary[n] + di) * dr + probe[1];
+                dr = ndr;
+                di = ndi;
+            }
+            double[] approximation = evaluate(probe[0], probe[1]);
+            double error = Math.hypot(approximation[0] - dr, approximation[1] - di);
+            if (!(error <= PROBE_TOLERANCE * Math.hypot(dr, di)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return D at the skip for the pixel with offset dC, as {real, imaginary}
+     */
+    double[] evaluate(double dcReal, double dcImaginary) {
+        double dc2r = dcReal * dcReal - dcImaginary * dcImaginary;
+        double dc2i = 2 * dcReal * dcImaginary;
+        double dc3r = dc2r * dcReal - dc2i * dcImaginary;
+        double dc3i = dc2r * dcImaginary + dc2i * dcReal;
+        return new double[] {
+            ar * dcReal - ai * dcImaginary + br * dc2r - bi * dc2i + cr * dc3r - ci * dc3i,
+            ar * dcImaginary + ai * dcReal + br * dc2i + bi * dc2r + cr * dc3i + ci * dc3r};
+    }
+
+    /**
+     * @return the number of iterations every pixel skips
+     */
+    int getSkip() {
+        return skip;
+    }
+}
@@ -0,0 +1,375 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TileCache class keeps iteration values on a fixed grid in the complex plane, so that a frame overlapping an area
+ * rendered before only calculates what is new.
+ *
+ * The grid is a quadtree of levels: level L has the pixel spacing 2^-L, and its pixels are grouped into square tiles of
+ * TILE_SIZE pixels, so pixel (i, j) of tile (tileX, tileY) sits at C = (tileX * TILE_SIZE + i) * 2^-L
+ * + i * (tileY * TILE_SIZE + j) * 2^-L. These coordinates are exact in double, so a tile holds the same values whenever
+ * it is calculated. Tiles are keyed by (level, tileX, tileY, maxIterations).
+ *
+ * A frame is served from the coarsest level whose spacing is not larger than its own pixel spacing, so neighbouring
+ * pixels never share a grid point. Every pixel of the frame takes the value of the nearest grid point, so a frame on
+ * the grid reuses the tiles directly and any other frame resamples them, shifting each value by at most half a grid
+ * spacing, which is at most half a pixel. Only the tiles missing from the cache are calculated.
+ * Frames too deep for double arithmetic are not served, see canServe.
+ *
+ * The tiles are held in a least recently used order within a memory budget. With a spill directory set, tiles evicted
+ * from memory are written to disk, within a budget of their own, and read back when they are needed again.
+ */
+public class TileCache {
+
+    protected static final int TILE_SIZE = 64;
+    protected static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    protected static final String SPILL_EXTENSION = ".tile";
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+    //Grid indices stay exact in double below this
+    private static final double MAX_GRID_INDEX = 1L << 52;
+
+    private final LinkedHashMap<TileKey, int[]> tiles = new LinkedHashMap<TileKey, int[]>(16, 0.75f, true);
+    private final LinkedHashMap<TileKey, Path> spilledTiles = new LinkedHashMap<TileKey, Path>(16, 0.75f, true);
+    private long memoryBudget;
+    private Path spillDirectory;
+    private long spillBudget;
+    private long hits;
+    private long spillHits;
+    private long misses;
+
+    public TileCache() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget the bytes of iteration values kept in memory
+     */
+    public TileCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return true if the frame is shallow enough for its grid coordinates to be exact
+     */
+    public boolean canServe(int width, int height, double minReal, double maxReal, double minImaginary,
+            double maxImaginary) {
+        if (width <= 0 || height <= 0)
+            return false;
+        double realStep = (maxReal - minReal) / width;
+        double imaginaryStep = (maxImaginary - minImaginary) / height;
+        if (!(realStep > 0) || !(imaginaryStep > 0)
+                || MandelbrotCalculator.needsDoubleDouble(minReal, maxReal, minImaginary, maxImaginary, realStep,
+                        imaginaryStep))
+            return false;
+        double spacing = spacingOf(levelOf(realStep, imaginaryStep));
+        double magnitude = Math.max(Math.max(Math.abs(minReal), Math.abs(maxReal)),
+                Math.max(Math.abs(minImaginary), Math.abs(maxImaginary)));
+        return magnitude / spacing < MAX_GRID_INDEX;
+    }
+
+    /**
+     * Fills a buffer with the frame from the cached tiles, calculating the missing tiles first.
+     * The caller checks canServe beforehand. The radius is not part of the tile keys, so all frames rendered through
+     * one cache must use the same radiusSquared.
+     * @param calculator calculates the missing tiles
+     * @param cancelled polled between runs of missing tiles
+     * @throws java.util.concurrent.CancellationException if the render was cancelled. The tiles completed until
+     * then stay in the cache.
+     */
+    public synchronized void render(IterationBuffer mandelbrotData, MandelbrotCalculator calculator, double minReal,
+            double maxReal, double minImaginary, double maxImaginary, int maxIterations, double radiusSquared,
+            BooleanSupplier cancelled) {
+        int width = mandelbrotData.getWidth();
+        int height = mandelbrotData.getHeight();
+        double realStep = (maxReal - minReal) / width;
+        double imaginaryStep = (maxImaginary - minImaginary) / height;
+        int level = levelOf(realStep, imaginaryStep);
+        double spacing = spacingOf(level);
+
+        long[] gridX = new long[width];
+        for (int x = 0; x < width; x++)
+            gridX[x] = Math.round((minReal + x * realStep) / spacing);
+        long[] gridY = new long[height];
+        for (int y = 0; y < height; y++)
+            gridY[y] = Math.round((minImaginary + y * imaginaryStep) / spacing);
+        long firstTileX = tileOf(gridX[0]);
+        long firstTileY = tileOf(gridY[0]);
+        int tilesAcross = (int) (tileOf(gridX[width - 1]) - firstTileX + 1);
+        int tilesDown = (int) (tileOf(gridY[height - 1]) - firstTileY + 1);
+
+        int[][] frameTiles = new int[tilesAcross * tilesDown][];
+        for (int row = 0; row < tilesDown; row++) {
+            for (int column = 0; column < tilesAcross; column++)
+                frameTiles[row * tilesAcross + column] = lookup(new TileKey(level, firstTileX + column,
+                        firstTileY + row, maxIterations));
+            calcMissingTiles(frameTiles, row, tilesAcross, level, firstTileX, firstTileY + row, calculator,
+                    maxIterations, radiusSquared, cancelled);
+        }
+
+        int[] data = mandelbrotData.getData();
+        for (int y = 0; y < height; y++) {
+            int tileRow = (int) (tileOf(gridY[y]) - firstTileY);
+            int tileOffset = indexInTile(gridY[y]) * TILE_SIZE;
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int[] tile = frameTiles[tileRow * tilesAcross
+                        + (int) (tileOf(gridX[x]) - firstTileX)];
+                data[rowOffset + x] = tile[tileOffset + indexInTile(gridX[x])];
+            }
+        }
+    }
+
+    /**
+     * Calculates every run of neighbouring missing tiles in one row of tiles with a single call of the calculator,
+     * which renders the run in parallel.
+     */
+    private void calcMissingTiles(int[][] frameTiles, int row, int tilesAcross, int level, long firstTileX,
+            long tileY, MandelbrotCalculator calculator, int maxIterations, double radiusSquared,
+            BooleanSupplier cancelled) {
+        double spacing = spacingOf(level);
+        int column = 0;
+        while (column < tilesAcross) {
+            if (frameTiles[row * tilesAcross + column] != null) {
+                column++;
+                continue;
+            }
+            int run = 1;
+            while (column + run < tilesAcross && frameTiles[row * tilesAcross + column + run] == null)
+                run++;
+            long tileX = firstTileX + column;
+            IterationBuffer runBuffer = new IterationBuffer(run * TILE_SIZE, TILE_SIZE);
+            double minReal = tileX * TILE_SIZE * spacing;
+            double minImaginary = tileY * TILE_SIZE * spacing;
+            calculator.calcMandelbrotRegion(runBuffer, 0, 0, run * TILE_SIZE, TILE_SIZE, minReal,
+                    minReal + run * TILE_SIZE * spacing, minImaginary, minImaginary + TILE_SIZE * spacing,
+                    maxIterations, radiusSquared, cancelled);
+            int[] runData = runBuffer.getData();
+            for (int i = 0; i < run; i++) {
+                int[] tile = new int[TILE_SIZE * TILE_SIZE];
+                for (int y = 0; y < TILE_SIZE; y++)
+                    System.arraycopy(runData, y * run * TILE_SIZE + i * TILE_SIZE, tile, y * TILE_SIZE, TILE_SIZE);
+                frameTiles[row * tilesAcross + column + i] = tile;
+                store(new TileKey(level, tileX + i, tileY, maxIterations), tile);
+            }
+            misses += run;
+            column += run;
+        }
+    }
+
+    private int[] lookup(TileKey key) {
+        int[] tile = tiles.get(key);
+        if (tile != null) {
+            hits++;
+            return tile;
+        }
+        Path spilled = spilledTiles.get(key);
+        if (spilled == null)
+            return null;
+        try {
+            tile = readTile(spilled);
+        } catch (IOException ex) {
+            Logger.getLogger(TileCache.class.getName()).log(Level.WARNING, "Cannot read spilled tile " + spilled, ex);
+            spilledTiles.remove(key);
+            return null;
+        }
+        spillHits++;
+        store(key, tile);
+        return tile;
+    }
+
+    private void store(TileKey key, int[] tile) {
+        tiles.put(key, tile);
+        evict();
+    }
+
+    /**
+     * Drops the least recently used tiles beyond the memory budget, spilling them to disk if a directory is set.
+     */
+    private void evict() {
+        Iterator<Map.Entry<TileKey, int[]>> eldest = tiles.entrySet().iterator();
+        while (tiles.size() * TILE_BYTES > memoryBudget && eldest.hasNext()) {
+            Map.Entry<TileKey, int[]> entry = eldest.next();
+            eldest.remove();
+            if (spillDirectory != null)
+                spill(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Tiles never change, so a tile read back from disk keeps its file and is not written again when it is evicted
+     * once more.
+     */
+    private void spill(TileKey key, int[] tile) {
+        if (spilledTiles.get(key) != null)
+            return;
+        Path file = spillDirectory.resolve(key.fileName());
+        try {
+            writeTile(file, tile);
+        } catch (IOException ex) {
+            Logger.getLogger(TileCache.class.getName()).log(Level.WARNING, "Cannot spill tile to " + file, ex);
+            return;
+        }
+        spilledTiles.put(key, file);
+        Iterator<Map.Entry<TileKey, Path>> eldest = spilledTiles.entrySet().iterator();
+        while (spilledTiles.size() * TILE_BYTES > spillBudget && eldest.hasNext()) {
+            Path evicted = eldest.next().getValue();
+            eldest.remove();
+            try {
+                Files.deleteIfExists(evicted);
+            } catch (IOException ex) {
+                Logger.getLogger(TileCache.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    private static void writeTile(Path file, int[] tile) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) TILE_BYTES);
+        bytes.asIntBuffer().put(tile);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        }
+    }
+
+    private static int[] readTile(Path file) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) TILE_BYTES);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (bytes.hasRemaining())
+                if (channel.read(bytes) < 0)
+                    throw new IOException("Truncated tile file " + file);
+        }
+        bytes.flip();
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        bytes.asIntBuffer().get(tile);
+        return tile;
+    }
+
+    /**
+     * @return the coarsest level whose spacing 2^-level is not larger than the pixel spacing. The binary exponent of
+     * the spacing is exact, where a logarithm would round powers of two either way.
+     */
+    private static int levelOf(double realStep, double imaginaryStep) {
+        return -Math.getExponent(Math.min(realStep, imaginaryStep));
+    }
+
+    /**
+     * @return the index of the tile holding a grid point, along one axis. The divisor is a long, because the
+     * floorDiv(long, int) overload only exists from Java 9 on.
+     */
+    private static long tileOf(long gridIndex) {
+        return Math.floorDiv(gridIndex, (long) TILE_SIZE);
+    }
+
+    /**
+     * @return the index of a grid point within its tile, along one axis
+     */
+    private static int indexInTile(long gridIndex) {
+        return (int) Math.floorMod(gridIndex, (long) TILE_SIZE);
+    }
+
+    private static double spacingOf(int level) {
+        return Math.scalb(1.0, -level);
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        evict();
+    }
+
+    /**
+     * @param spillDirectory where tiles evicted from memory are kept, or null to drop them. The directory must exist
+     * and should not be shared with another cache.
+     * @param spillBudget the bytes of tiles kept in the directory
+     */
+    public synchronized void setSpillDirectory(Path spillDirectory, long spillBudget) {
+        this.spillDirectory = spillDirectory;
+        this.spillBudget = spillBudget;
+    }
+
+    /**
+     * Drops every tile, from memory and from the spill directory.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        for (Path file : spilledTiles.values()) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                Logger.getLogger(TileCache.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+        spilledTiles.clear();
+    }
+
+    /**
+     * @return the tiles found in memory
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the tiles read back from the spill directory
+     */
+    public synchronized long getSpillHits() {
+        return spillHits;
+    }
+
+    /**
+     * @return the tiles calculated
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static final class TileKey {
+
+        private final int level;
+        private final long tileX;
+        private final long tileY;
+        private final int maxIterations;
+
+        TileKey(int level, long tileX, long tileY, int maxIterations) {
+            this.level = level;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.maxIterations = maxIterations;
+        }
+
+        String fileName() {
+            return level + "_" + tileX + "_" + tileY + "_" + maxIterations + SPILL_EXTENSION;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TileKey))
+                return false;
+            TileKey key = (TileKey) other;
+            return level == key.level && tileX == key.tileX && tileY == key.tileY
+                    && maxIterations == key.maxIterations;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, tileX, tileY, maxIterations);
+        }
+    }
+}
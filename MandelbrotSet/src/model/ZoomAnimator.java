@@ -0,0 +1,151 @@
+package model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The ZoomAnimator class makes the in-between frames of the zoom animation from the rendered target frame, instead
+ * of calculating the new viewport once for every frame. Each frame shows the previous image with the target frame,
+ * scaled down by bilinear resampling, in a rectangle that grows from the selection to the whole image.
+ *
+ * The frames are drawn into pooled images. Two sets of images are used in turn, so the frames of the animation the
+ * view may still be playing are not overwritten by the next zoom. Refined frames are drawn into new images, as the
+ * view may be showing the earlier ones. The animator is used by the render thread only.
+ */
+public class ZoomAnimator {
+
+    //Every frame the growing rectangle gains a tenth of the image width and height
+    protected static final int GROWTH_STEPS = 10;
+    protected static final int FRAME_SETS = 2;
+
+    private final BufferedImage[][] frameSets = new BufferedImage[FRAME_SETS][0];
+    private int nextFrameSet;
+
+    private BufferedImage[] frames = new BufferedImage[0];
+    private int[] previousPixels;
+    private int width;
+    private int height;
+    private int minRealPixel;
+    private int minImaginaryPixel;
+    private int selectedWidth;
+    private int selectedHeight;
+
+    /**
+     * Starts a new animation. The frames are not drawn until draw() is called with the target frame.
+     * The geometry is the one of the original animation: the rectangle grows by a tenth of the image per frame and
+     * its upper left corner moves from the selection to the corner of the image.
+     * @param previousImage the image the zoom starts from
+     * @return the frames of the animation, in the order they are to be shown. May be empty for large selections.
+     */
+    public BufferedImage[] begin(BufferedImage previousImage, int minRealPixel, int maxRealPixel,
+            int minImaginaryPixel, int maxImaginaryPixel) {
+        width = previousImage.getWidth();
+        height = previousImage.getHeight();
+        this.minRealPixel = minRealPixel;
+        this.minImaginaryPixel = minImaginaryPixel;
+        selectedWidth = maxRealPixel - minRealPixel;
+        selectedHeight = maxImaginaryPixel - minImaginaryPixel;
+        BufferedImage previous = ImagePainter.toIntRgb(previousImage);
+        previousPixels = ImagePainter.getPixels(previous);
+        if (ImagePainter.getScanlineStride(previous) != width)
+            previousPixels = previous.getRGB(0, 0, width, height, null, 0, width);
+
+        int growth = width / GROWTH_STEPS;
+        int numberOfRepetitions = growth > 0 ? (width - selectedWidth) / growth : 0;
+        frames = new BufferedImage[Math.max(0, numberOfRepetitions - 1)];
+        BufferedImage[] pool = frameSets[nextFrameSet];
+        if (pool.length < frames.length || (pool.length > 0 && (pool[0].getWidth() != width || pool[0].getHeight() != height))) {
+            BufferedImage[] grown = new BufferedImage[Math.max(frames.length, pool.length)];
+            for (int i = 0; i < grown.length; i++)
+                grown[i] = i < pool.length && pool[i].getWidth() == width && pool[i].getHeight() == height
+                        ? pool[i] : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            frameSets[nextFrameSet] = pool = grown;
+        }
+        System.arraycopy(pool, 0, frames, 0, frames.length);
+        nextFrameSet = (nextFrameSet + 1) % FRAME_SETS;
+        return frames;
+    }
+
+    /**
+     * Draws every frame of the current animation from the target frame, into the images begin() returned. The
+     * frames must not be shown before they are drawn; use refine() for any later target.
+     * @param targetImage the image of the new viewport, of the same size as the previous image
+     */
+    public void draw(BufferedImage targetImage) {
+        BufferedImage target = ImagePainter.toIntRgb(targetImage);
+        int[] targetPixels = ImagePainter.getPixels(target);
+        int targetStride = ImagePainter.getScanlineStride(target);
+        int numberOfRepetitions = frames.length + 1;
+        int minRealPixelInterval = minRealPixel / numberOfRepetitions;
+        int minImaginaryPixelInterval = minImaginaryPixel / numberOfRepetitions;
+        for (int i = 1; i <= frames.length; i++) {
+            int[] pixels = ImagePainter.getPixels(frames[i - 1]);
+            System.arraycopy(previousPixels, 0, pixels, 0, width * height);
+            resample(targetPixels, targetStride, target.getWidth(), target.getHeight(), pixels,
+                    minRealPixel - i * minRealPixelInterval, minImaginaryPixel - i * minImaginaryPixelInterval,
+                    selectedWidth + i * (width / GROWTH_STEPS), selectedHeight + i * (height / GROWTH_STEPS));
+        }
+    }
+
+    /**
+     * Draws the frames of the current animation again from a sharper target, e.g. after each pass of a progressive
+     * render. The frames are drawn into new images, so the ones drawn before stay intact while the view shows them.
+     * @param targetImage the image of the new viewport, of the same size as the previous image
+     * @return the new frames, to be shown instead of the earlier ones from the frame the view has reached
+     */
+    public BufferedImage[] refine(BufferedImage targetImage) {
+        frames = new BufferedImage[frames.length];
+        for (int i = 0; i < frames.length; i++)
+            frames[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        draw(targetImage);
+        return frames;
+    }
+
+    public BufferedImage[] getFrames() {
+        return frames;
+    }
+
+    /**
+     * Scales the source image into the rectangle (targetX, targetY, targetWidth, targetHeight) of the frame by
+     * bilinear interpolation. Parts of the rectangle outside the frame are skipped.
+     */
+    private void resample(int[] source, int sourceStride, int sourceWidth, int sourceHeight, int[] frame,
+            int targetX, int targetY, int targetWidth, int targetHeight) {
+        if (targetWidth <= 0 || targetHeight <= 0)
+            return;
+        double scaleX = (double) sourceWidth / targetWidth;
+        double scaleY = (double) sourceHeight / targetHeight;
+        int minX = Math.max(0, targetX);
+        int maxX = Math.min(width, targetX + targetWidth);
+        int minY = Math.max(0, targetY);
+        int maxY = Math.min(height, targetY + targetHeight);
+        for (int y = minY; y < maxY; y++) {
+            double sourceY = Math.max(0, (y - targetY + 0.5) * scaleY - 0.5);
+            int y0 = Math.min((int) sourceY, sourceHeight - 1);
+            int y1 = Math.min(y0 + 1, sourceHeight - 1);
+            int weightY = (int) ((sourceY - y0) * 256);
+            int row0 = y0 * sourceStride;
+            int row1 = y1 * sourceStride;
+            int frameRow = y * width;
+            for (int x = minX; x < maxX; x++) {
+                double sourceX = Math.max(0, (x - targetX + 0.5) * scaleX - 0.5);
+                int x0 = Math.min((int) sourceX, sourceWidth - 1);
+                int x1 = Math.min(x0 + 1, sourceWidth - 1);
+                int weightX = (int) ((sourceX - x0) * 256);
+                int top = blend(source[row0 + x0], source[row0 + x1], weightX);
+                int bottom = blend(source[row1 + x0], source[row1 + x1], weightX);
+                frame[frameRow + x] = blend(top, bottom, weightY);
+            }
+        }
+    }
+
+    /**
+     * @param weight the share of b in 1/256
+     * @return the opaque colour weight/256 of the way from a to b, channel by channel
+     */
+    private static int blend(int a, int b, int weight) {
+        int inverse = 256 - weight;
+        int redBlue = (((a & 0xFF00FF) * inverse + (b & 0xFF00FF) * weight) >>> 8) & 0xFF00FF;
+        int green = (((a & 0x00FF00) * inverse + (b & 0x00FF00) * weight) >>> 8) & 0x00FF00;
+        return 0xFF000000 | redBlue | green;
+    }
+}
@@ -13,6 +13,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
@@ -20,6 +21,7 @@ import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 
 /**
  *
@@ -32,6 +34,8 @@ public class ImagePanel extends JPanel{
     private Rectangle selectedRectangle;
     JLabel screenLabel;
     final BufferedImage screenCopy;
+    // Receives the mouse movement of right button drags, in pixels
+    private BiConsumer<Integer, Integer> panHandler;
 
     public ImagePanel(BufferedImage image) {
         this.image = image;
@@ -52,16 +56,28 @@ public class ImagePanel extends JPanel{
         
         screenLabel.addMouseMotionListener(new MouseMotionAdapter() {
             Point start = new Point();
+            Point panPoint = new Point();
 
             @Override
             public void mouseMoved(MouseEvent me) {
                 
                 start = me.getPoint();
+                panPoint = me.getPoint();
             }
 
             @Override
             public void mouseDragged(MouseEvent me) {
                 
+                // Dragging with the right button moves the view instead of selecting an area
+                if (SwingUtilities.isRightMouseButton(me)) {
+                    int deltaX = me.getX() - panPoint.x;
+                    int deltaY = me.getY() - panPoint.y;
+                    panPoint = me.getPoint();
+                    selectedRectangle = null;
+                    if (panHandler != null && (deltaX != 0 || deltaY != 0))
+                        panHandler.accept(deltaX, deltaY);
+                    return;
+                }
                 Point end = me.getPoint();
                 // A little geometry to make sure that the selected rectangle maintains aspect ratio
                 if ((double)(me.getX() - start.getX()) / (double)(me.getY() - start.getY()) > 8.0 / 6.0)
@@ -111,5 +127,9 @@ public class ImagePanel extends JPanel{
     public Rectangle getSelectedRectangle() {
         return selectedRectangle;
     }
+    
+    public void setPanHandler(BiConsumer<Integer, Integer> panHandler) {
+        this.panHandler = panHandler;
+    }
 
 }
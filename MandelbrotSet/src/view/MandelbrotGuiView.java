@@ -12,8 +12,6 @@ import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.swing.Box;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -24,6 +22,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import model.IMandelbrotModel;
 
 public class MandelbrotGuiView implements Observer, ActionListener {
@@ -39,6 +38,7 @@ public class MandelbrotGuiView implements Observer, ActionListener {
     private static int DEFAULT_FRAME_HEIGHT = 700;
     private static int DEFAULT_CONTROLPANEL_HEIGHT = 50;
     private static int DEFAULT_VIEWPANEL_HEIGHT = 600;
+    private static int ZOOM_ANIMATION_FRAME_DELAY = 20;
     
     private JMenuItem loadMenuItem;
     private JMenuItem saveMenuItem;
@@ -63,6 +63,9 @@ public class MandelbrotGuiView implements Observer, ActionListener {
     
     boolean changedScale;
     
+    // Plays the zoom animation frames without blocking the event thread
+    private Timer zoomAnimationTimer;
+    
     public MandelbrotGuiView(IMandelbrotModel model, IMandelbrotController controller) {
         
         this.model = model;
@@ -181,35 +184,58 @@ public class MandelbrotGuiView implements Observer, ActionListener {
            //generateButton.addActionListener(al);
             changeColourMappingButton.addActionListener(event -> controller.changeColourMapping());
             //changeColourMappingButton.addActionListener(al);
+            mandelbrotViewPanel.setPanHandler((deltaX, deltaY) -> controller.controlPan(deltaX, deltaY));
     }
 
     @Override
     public void update(Observable arg0, Object arg1) {
+        // The model notifies from its render thread, the images are swapped in on the event thread
         SwingUtilities.invokeLater(new Runnable(){
             public void run(){
                 if (changedScale) {
-                    BufferedImage[] multipleImages = model.getMultipleImages();
-                    for (int i = 0; i < multipleImages.length; i++) {
-                        mandelbrotViewPanel.setNewImage(multipleImages[i]);
-                        mainFrame.paintAll(mainFrame.getGraphics());
-                        //every 20 miliseconds
-                        try {
-                            Thread.sleep(20);
-                        } catch (InterruptedException ex) {
-                            Logger.getLogger(MandelbrotGuiView.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                    }
                     changedScale = false;
+                    playZoomAnimation();
                 }
-                mandelbrotViewPanel.setNewImage(model.getCurrentImage());  // Read new image from the model
-                magnificationValueLabel.setText("1 : " + String.format("%.1f", model.getCurrentRatio())); // http://javadevnotes.com/java-double-to-string-examples inform about current ratio
-                maxIterationTextField.setText(Integer.toString(model.getCurrentMaxIterations()));
-                currentRatio = model.getCurrentRatio(); // store the new current ratio
-		mainFrame.paintAll(mainFrame.getGraphics());
+                else if (zoomAnimationTimer == null)
+                    showCurrentImage();
+                // otherwise the animation shows the latest image when it ends
             }
         });
     }
     
+    /**
+     * Shows the zoom animation frames one after the other, every 20 milliseconds,
+     * and then the current image of the model. The frames are read from the model
+     * at every tick, as it publishes sharper ones while the animation plays.
+     */
+    private void playZoomAnimation() {
+        if (zoomAnimationTimer != null)
+            zoomAnimationTimer.stop();
+        int[] frame = {0};
+        zoomAnimationTimer = new Timer(ZOOM_ANIMATION_FRAME_DELAY, event -> {
+            BufferedImage[] multipleImages = model.getMultipleImages();
+            if (multipleImages != null && frame[0] < multipleImages.length) {
+                mandelbrotViewPanel.setNewImage(multipleImages[frame[0]++]);
+                mainFrame.paintAll(mainFrame.getGraphics());
+            }
+            else {
+                zoomAnimationTimer.stop();
+                zoomAnimationTimer = null;
+                showCurrentImage();
+            }
+        });
+        zoomAnimationTimer.setInitialDelay(0);
+        zoomAnimationTimer.start();
+    }
+    
+    private void showCurrentImage() {
+        mandelbrotViewPanel.setNewImage(model.getCurrentImage());  // Read new image from the model
+        magnificationValueLabel.setText("1 : " + String.format("%.1f", model.getCurrentRatio())); // http://javadevnotes.com/java-double-to-string-examples inform about current ratio
+        maxIterationTextField.setText(Integer.toString(model.getCurrentMaxIterations()));
+        currentRatio = model.getCurrentRatio(); // store the new current ratio
+        mainFrame.paintAll(mainFrame.getGraphics());
+    }
+    
     @Override
     public void actionPerformed(ActionEvent e) {
 //        if(e.getSource() == loadMenuItem) {
@@ -0,0 +1,89 @@
+package controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import model.IterationBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes iteration fields and reads them back, covering zero runs across rows, steps of either sign and values that
+ * need several varint bytes.
+ */
+public class IterationFieldFileTest {
+
+    private static final BigDecimal MIN_REAL = new BigDecimal("-0.743643887037158704752191506114774");
+    private static final BigDecimal MAX_REAL = new BigDecimal("-0.743643887037158704752191506114765");
+    private static final BigDecimal MIN_IMAGINARY = new BigDecimal("0.131825904205311970493132056385135");
+    private static final BigDecimal MAX_IMAGINARY = new BigDecimal("0.131825904205311970493132056385141");
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("field", IterationFieldFile.EXTENSION);
+    }
+
+    @After
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void roundTripsValues() throws IOException {
+        int maxIterations = 1000000;
+        IterationBuffer iterations = new IterationBuffer(7, 5);
+        int[] data = iterations.getData();
+        for (int i = 0; i < data.length; i++)
+            data[i] = i < 10 ? maxIterations : (i * 7919) % 3 == 0 ? i * 31 : i * i * 173 % maxIterations;
+        // one value jumping back down, then a run reaching into the next row
+        data[20] = 0;
+        data[26] = 5;
+        data[27] = 5;
+        data[28] = 5;
+        data[34] = maxIterations;
+
+        IterationFieldFile read = roundTrip(iterations, maxIterations);
+
+        assertArrayEquals(data, read.getIterations().getData());
+        assertTrue(read.matches(7, 5, maxIterations, MIN_REAL, MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY));
+    }
+
+    @Test
+    public void roundTripsSingleColumnAndUniformField() throws IOException {
+        IterationBuffer column = new IterationBuffer(1, 6);
+        System.arraycopy(new int[] {3, 3, 200, 1, 1, 1}, 0, column.getData(), 0, 6);
+        assertArrayEquals(column.getData(), roundTrip(column, 200).getIterations().getData());
+
+        IterationBuffer uniform = new IterationBuffer(64, 48);
+        Arrays.fill(uniform.getData(), 50);
+        assertArrayEquals(uniform.getData(), roundTrip(uniform, 50).getIterations().getData());
+    }
+
+    @Test
+    public void matchesBoundsBeyondDoublePrecision() throws IOException {
+        IterationFieldFile read = roundTrip(new IterationBuffer(4, 3), 100);
+
+        // equal as doubles, different as decimals
+        BigDecimal nearMinReal = MIN_REAL.add(new BigDecimal("1e-33"));
+        assertTrue(nearMinReal.doubleValue() == MIN_REAL.doubleValue());
+        assertFalse(read.matches(4, 3, 100, nearMinReal, MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY));
+        // the same value at another scale still matches
+        assertTrue(read.matches(4, 3, 100, MIN_REAL.setScale(40), MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY));
+        assertFalse(read.matches(4, 3, 101, MIN_REAL, MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY));
+        assertFalse(read.matches(3, 4, 100, MIN_REAL, MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY));
+    }
+
+    private IterationFieldFile roundTrip(IterationBuffer iterations, int maxIterations) throws IOException {
+        new IterationFieldFile(iterations, maxIterations, MIN_REAL, MAX_REAL, MIN_IMAGINARY, MAX_IMAGINARY).write(file);
+        return IterationFieldFile.read(file);
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that the kernels and the serial and parallel loops of MandelbrotCalculator give the same frame pixel for pixel.
+ * The width is not a multiple of STRIP_WIDTH so that the strip kernel also hands the remainder of each row to the single point kernel.
+ */
+public class MandelbrotCalculatorTest {
+
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 150;
+
+    @Test
+    public void kernelsAgreeOnFullView() {
+        assertKernelsAgree(-2.0, 0.7, -1.25, 1.25, 500);
+    }
+
+    @Test
+    public void kernelsAgreeOnSeahorseValley() {
+        assertKernelsAgree(-0.75, -0.74, 0.1, 0.11, 2000);
+    }
+
+    @Test
+    public void kernelsAgreeOnMinibrot() {
+        // period-3 interior outside the cardioid and bulb, left to periodicity detection
+        assertKernelsAgree(-1.7549, -1.7545, -0.0002, 0.0002, 5000);
+    }
+
+    @Test
+    public void serialAndParallelAgree() {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        calculator.setParallelRendering(false);
+        int[][] serial = render(calculator, -2.0, 0.7, -1.25, 1.25, 500);
+        calculator.setParallelRendering(true);
+        calculator.setParallelism(4);
+        int[][] parallel = render(calculator, -2.0, 0.7, -1.25, 1.25, 500);
+        assertArrayEquals(serial, parallel);
+    }
+
+    private static void assertKernelsAgree(double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations) {
+        MandelbrotCalculator calculator = new MandelbrotCalculator();
+        calculator.setParallelRendering(false);
+
+        calculator.setOptimisedKernel(false);
+        calculator.setStripKernel(false);
+        int[][] calcMandel = render(calculator, minReal, maxReal, minImaginary, maxImaginary, maxIterations);
+
+        calculator.setOptimisedKernel(true);
+        int[][] calcMandelOptimised = render(calculator, minReal, maxReal, minImaginary, maxImaginary, maxIterations);
+
+        calculator.setStripKernel(true);
+        int[][] calcMandelStrip = render(calculator, minReal, maxReal, minImaginary, maxImaginary, maxIterations);
+
+        assertArrayEquals("calcMandelOptimised", calcMandel, calcMandelOptimised);
+        assertArrayEquals("calcMandelStrip", calcMandel, calcMandelStrip);
+    }
+
+    private static int[][] render(MandelbrotCalculator calculator, double minReal, double maxReal, double minImaginary, double maxImaginary, int maxIterations) {
+        return calculator.calcMandelbrotSet(WIDTH, HEIGHT, minReal, maxReal, minImaginary, maxImaginary, maxIterations, MandelbrotCalculator.DEFAULT_RADIUS_SQUARED);
+    }
+}
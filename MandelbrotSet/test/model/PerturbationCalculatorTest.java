@@ -0,0 +1,32 @@
+package model;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.math.BigDecimal;
+import org.junit.Test;
+
+/**
+ * Checks that the serial loop of PerturbationCalculator gives the same frame as its parallel one.
+ */
+public class PerturbationCalculatorTest {
+
+    @Test
+    public void serialAndParallelAgree() {
+        BigDecimal minReal = new BigDecimal("-0.74364388703715870475219150611477");
+        BigDecimal maxReal = new BigDecimal("-0.74364388703715870475219150611467");
+        BigDecimal minImaginary = new BigDecimal("0.13182590420531197049313205638513");
+        BigDecimal maxImaginary = new BigDecimal("0.13182590420531197049313205638521");
+
+        PerturbationCalculator calculator = new PerturbationCalculator();
+        calculator.setParallelRendering(false);
+        IterationBuffer serial = new IterationBuffer(101, 80);
+        calculator.calcMandelbrotSet(serial, minReal, maxReal, minImaginary, maxImaginary, 3000, 4.0, () -> false);
+
+        calculator.setParallelRendering(true);
+        calculator.setParallelism(4);
+        IterationBuffer parallel = new IterationBuffer(101, 80);
+        calculator.calcMandelbrotSet(parallel, minReal, maxReal, minImaginary, maxImaginary, 3000, 4.0, () -> false);
+
+        assertArrayEquals(serial.getData(), parallel.getData());
+    }
+}
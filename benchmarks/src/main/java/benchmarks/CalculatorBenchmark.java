@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import model.IterationBuffer;
+import model.MandelbrotCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frames per second of MandelbrotCalculator.calcMandelbrotSet with the optimised kernel, comparing the strip kernel
+ * with the single point kernel. Run with -p parallelRendering=false to compare the kernels themselves, without the
+ * parallel tiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CalculatorBenchmark {
+
+    @Param({"800x600", "1920x1080", "3840x2160", "7680x4320"})
+    public String resolution;
+
+    @Param({"50", "500", "5000"})
+    public int maxIterations;
+
+    @Param({"FULL", "SEAHORSE_VALLEY", "DEEP_INTERIOR", "MINIBROT"})
+    public Region region;
+
+    @Param({"STRIP", "SCALAR"})
+    public String kernel;
+
+    @Param({"true"})
+    public boolean parallelRendering;
+
+    private MandelbrotCalculator calculator;
+    private IterationBuffer buffer;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        int[] size = Region.parseResolution(resolution);
+        width = size[0];
+        height = size[1];
+        calculator = new MandelbrotCalculator();
+        calculator.setStripKernel(kernel.equals("STRIP"));
+        calculator.setParallelRendering(parallelRendering);
+        buffer = new IterationBuffer(width, height);
+    }
+
+    @Benchmark
+    public IterationBuffer calcMandelbrotSet() {
+        calculator.calcMandelbrotSet(buffer, region.minReal(), region.maxReal(),
+                region.minImaginary(width, height), region.maxImaginary(width, height), maxIterations, 4.0);
+        return buffer;
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import controller.MandelbrotController;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import model.MandelbrotModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Operations per second of the model and controller entry points, at the model's own 800x600 resolution and
+ * initial view: painting, the zoom animation and saving the current image as a PNG with metadata.
+ * Saving is measured both into a byte array and streamed to a stream that discards the bytes, at the default
+ * compression level (-1) and at the fast one (1).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ModelBenchmark {
+
+    private MandelbrotModel model;
+    private MandelbrotController controller;
+
+    @Param({"-1", "1"})
+    public int compressionLevel;
+
+    @Setup
+    public void setUp() {
+        model = new MandelbrotModel();
+        controller = new MandelbrotController(model);
+        controller.setCompressionLevel(compressionLevel);
+    }
+
+    @Benchmark
+    public BufferedImage paintColor() {
+        model.paintColor();
+        return model.getCurrentImage();
+    }
+
+    /**
+     * The in-between frames of a zoom into the centre half of the view.
+     */
+    @Benchmark
+    public BufferedImage[] zoomAnimated() {
+        model.zoomAnimated(200, 600, 150, 450);
+        return model.getMultipleImages();
+    }
+
+    @Benchmark
+    public byte[] writeCustomData() throws Exception {
+        return controller.writeCustomData();
+    }
+
+    @Benchmark
+    public void writeCustomDataStreaming() throws Exception {
+        controller.writeCustomData(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) {
+            }
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import model.ColourPalette;
+import model.ImagePainter;
+import model.IterationBuffer;
+import model.MandelbrotCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frames per second of the colouring step behind MandelbrotModel.paintColor, at any resolution.
+ * The iteration field is rendered once in the set-up, only the palette lookup and raster writes are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaintBenchmark {
+
+    @Param({"800x600", "1920x1080", "3840x2160", "7680x4320"})
+    public String resolution;
+
+    @Param({"50", "500", "5000"})
+    public int maxIterations;
+
+    @Param({"FULL", "SEAHORSE_VALLEY", "DEEP_INTERIOR"})
+    public Region region;
+
+    private ImagePainter painter;
+    private IterationBuffer field;
+    private BufferedImage image;
+    private int randomColourMappingValue;
+
+    @Setup
+    public void setUp() {
+        int[] size = Region.parseResolution(resolution);
+        field = new IterationBuffer(size[0], size[1]);
+        new MandelbrotCalculator().calcMandelbrotSet(field, region.minReal(), region.maxReal(),
+                region.minImaginary(size[0], size[1]), region.maxImaginary(size[0], size[1]), maxIterations, 4.0);
+        image = new BufferedImage(size[0], size[1], BufferedImage.TYPE_INT_RGB);
+        painter = new ImagePainter();
+    }
+
+    @Benchmark
+    public BufferedImage paintColor() {
+        painter.paint(field, ColourPalette.defaultMapping(maxIterations), image, 0, 0);
+        return image;
+    }
+
+    /**
+     * Recolouring with a new mapping each time, which includes building the palette.
+     */
+    @Benchmark
+    public BufferedImage paintRandomColour() {
+        randomColourMappingValue = (randomColourMappingValue + 1) % 256;
+        painter.paint(field, ColourPalette.randomMapping(maxIterations, randomColourMappingValue), image, 0, 0);
+        return image;
+    }
+}
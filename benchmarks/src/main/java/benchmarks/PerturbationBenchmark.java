@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import model.IterationBuffer;
+import model.PerturbationCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frames per second of PerturbationCalculator.calcMandelbrotSet in seahorse valley at view widths far beyond double
+ * precision, with and without the series approximation skip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PerturbationBenchmark {
+
+    private static final BigDecimal CENTRE_REAL = new BigDecimal("-0.743643887037158704752191506114774");
+    private static final BigDecimal CENTRE_IMAGINARY = new BigDecimal("0.131825904205311970493132056385139");
+
+    @Param({"800x600"})
+    public String resolution;
+
+    @Param({"1e-20", "1e-28"})
+    public String viewWidth;
+
+    @Param({"30000"})
+    public int maxIterations;
+
+    @Param({"true", "false"})
+    public boolean seriesApproximation;
+
+    private PerturbationCalculator calculator;
+    private IterationBuffer buffer;
+    private BigDecimal minReal;
+    private BigDecimal maxReal;
+    private BigDecimal minImaginary;
+    private BigDecimal maxImaginary;
+
+    @Setup
+    public void setUp() {
+        int[] size = Region.parseResolution(resolution);
+        calculator = new PerturbationCalculator();
+        calculator.setSeriesApproximation(seriesApproximation);
+        buffer = new IterationBuffer(size[0], size[1]);
+        BigDecimal halfWidth = new BigDecimal(viewWidth).divide(BigDecimal.valueOf(2));
+        BigDecimal halfHeight = halfWidth.multiply(BigDecimal.valueOf(size[1])).divide(BigDecimal.valueOf(size[0]));
+        minReal = CENTRE_REAL.subtract(halfWidth);
+        maxReal = CENTRE_REAL.add(halfWidth);
+        minImaginary = CENTRE_IMAGINARY.subtract(halfHeight);
+        maxImaginary = CENTRE_IMAGINARY.add(halfHeight);
+    }
+
+    @Benchmark
+    public IterationBuffer calcMandelbrotSet() {
+        calculator.calcMandelbrotSet(buffer, minReal, maxReal, minImaginary, maxImaginary, maxIterations, 4.0,
+                () -> false);
+        return buffer;
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+/**
+ * The views the benchmarks render. Each region is given by its centre and real width; the imaginary height
+ * follows from the aspect ratio of the benchmarked resolution, so pixels stay square at every resolution.
+ */
+public enum Region {
+
+    FULL(-0.5, 0.0, 3.5),
+    SEAHORSE_VALLEY(-0.745, 0.105, 0.01),
+    DEEP_INTERIOR(-0.1, 0.1, 0.2),
+    // the period-3 minibrot on the real axis: interior, but outside the cardioid and bulb the kernels test analytically
+    MINIBROT(-1.7547, 0.0, 0.0004);
+
+    private final double centreReal;
+    private final double centreImaginary;
+    private final double realWidth;
+
+    Region(double centreReal, double centreImaginary, double realWidth) {
+        this.centreReal = centreReal;
+        this.centreImaginary = centreImaginary;
+        this.realWidth = realWidth;
+    }
+
+    public double minReal() {
+        return centreReal - realWidth / 2;
+    }
+
+    public double maxReal() {
+        return centreReal + realWidth / 2;
+    }
+
+    public double minImaginary(int width, int height) {
+        return centreImaginary - realWidth * height / width / 2;
+    }
+
+    public double maxImaginary(int width, int height) {
+        return centreImaginary + realWidth * height / width / 2;
+    }
+
+    /**
+     * @param resolution a resolution of the form 800x600
+     * @return {width, height}
+     */
+    public static int[] parseResolution(String resolution) {
+        String[] parts = resolution.split("x");
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+}
@@ -0,0 +1,130 @@
+package benchmarks;
+
+import controller.MandelbrotHttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import model.MandelbrotCalculator;
+
+/**
+ * Command line load generator for MandelbrotHttpServer. It starts a server on a free local port and lets a number of
+ * client threads request the same small set of tiles at the same moment, so that most requests overlap with an
+ * identical one. Afterwards it checks that every response for a tile was the same image, prints the latencies and how
+ * many renders the requests cost, and repeats one request with its ETag to check that it is answered with 304.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar benchmarks.RenderServerLoadTest [clients=32] [requestsPerClient=20]
+ *     [distinctTiles=8] [iterations=2000]
+ */
+public class RenderServerLoadTest {
+
+    private static final int TILE_LEVEL = 3;
+
+    public static void main(String args[]) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int distinctTiles = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        MandelbrotHttpServer server = new MandelbrotHttpServer(new MandelbrotCalculator(), 0,
+                Runtime.getRuntime().availableProcessors());
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        List<String> tiles = new ArrayList<String>();
+        for (int i = 0; i < distinctTiles; i++) {
+            int tilesPerRow = 1 << TILE_LEVEL;
+            int tile = (i * 7 + 3) % (tilesPerRow * tilesPerRow);
+            tiles.add(base + "/tile/" + TILE_LEVEL + "/" + tile % tilesPerRow + "/" + tile / tilesPerRow
+                    + ".png?iterations=" + iterations);
+        }
+
+        ConcurrentHashMap<String, byte[]> images = new ConcurrentHashMap<String, byte[]>();
+        AtomicInteger mismatches = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        long[] latencies = new long[clients * requestsPerClient];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int r = 0; r < requestsPerClient; r++) {
+                    // All clients request the tiles in the same order, so their requests overlap
+                    String url = tiles.get(r % tiles.size());
+                    long begin = System.nanoTime();
+                    try {
+                        byte[] image = get(url, null);
+                        byte[] first = images.putIfAbsent(url, image);
+                        if (first != null && !Arrays.equals(first, image))
+                            mismatches.incrementAndGet();
+                    } catch (IOException ex) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[client * requestsPerClient + r] = System.nanoTime() - begin;
+                }
+            }, "Mandelbrot load " + c);
+            threads[c].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%d requests from %d clients in %.2f s, %.0f requests/s",
+                latencies.length, clients, seconds, latencies.length / seconds));
+        System.out.println(String.format("latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                latencies[latencies.length - 1] / 1e6));
+        System.out.println(String.format("%d renders, %d requests coalesced, %d failures, %d differing images",
+                server.getRenderCount(), server.getCoalescedCount(), failures.get(), mismatches.get()));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(tiles.get(0)).openConnection();
+        String eTag = connection.getHeaderField("ETag");
+        connection.disconnect();
+        int status = status(tiles.get(0), eTag);
+        System.out.println("Conditional request with ETag " + eTag + ": " + status);
+        server.stop(0);
+        if (failures.get() > 0 || mismatches.get() > 0 || status != HttpURLConnection.HTTP_NOT_MODIFIED)
+            System.exit(1);
+    }
+
+    private static byte[] get(String url, String eTag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (eTag != null)
+            connection.setRequestProperty("If-None-Match", eTag);
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+            throw new IOException(url + " answered " + connection.getResponseCode());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) >= 0;)
+                body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static int status(String url, String eTag) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("If-None-Match", eTag);
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    private static double percentile(long[] sortedNanos, double share) {
+        return sortedNanos[Math.min(sortedNanos.length - 1, (int) (share * sortedNanos.length))] / 1e6;
+    }
+}